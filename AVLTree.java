@@ -1,9 +1,19 @@
+import java.util.Arrays;
 import java.util.Queue;
 import java.util.LinkedList;
+import java.util.ArrayDeque;
 
 /** A generic AVLTree.
  * @param <T> The type of object to store.  It must implement
  * Comparable&lt;T&gt;
+ *
+ * Each node also knows the size of its subtree, which makes this an
+ * order statistic tree:  rank(), select(), count() and enqueue by rank
+ * are all O(log n) (plus the number of elements returned).  insert() and
+ * delete() are iterative, and reuse a scratch path instead of allocating
+ * as they go, so a tree that is updated constantly (e.g. a leaderboard)
+ * only allocates one node per insert.  Because of the scratch path, a
+ * tree must not be modified by two threads at once.
  * 
  * Note that you should not attempt to store null values in the tree,
  * as this breaks the comparison logic and error reporting conventions.
@@ -14,30 +24,6 @@ public class AVLTree<T extends Comparable<T>> {
      */
     //type erasure SUCKS so I can't statically use T...
     private static class Node<U extends Comparable<U>> {
-        /** A class to propogate errors up the call stack.
-         * @param <V> Should be the same as the enclosing U.
-         *
-         * This class is necessary for the recursive version of insert() as
-         * it needs to pass failure conditions up the call stack (i.e.
-         * value already in set) without interrupting flow.  Basically
-         * a Pair&lt;V, boolean&gt;.
-         */
-        public static class Error<V> {
-            /** The value of the object. */
-            public V value;
-            /** The error flag. */
-            public boolean error;
-            /** Construct a new object from a value.
-             * @param v the value to take on
-             */
-            public Error(V v) {
-                value = v;
-            }
-            /** Set the error flag. */
-            void set()  {
-                error = true;
-            }
-        }
         /** The left subtree */
         private Node<U> lchild;
         /** The right subtree */
@@ -46,6 +32,10 @@ public class AVLTree<T extends Comparable<T>> {
          * This is defined as max(height(lchild), height(rchild)) + 1
          */
         private int subtree_height;
+        /** The number of nodes in this subtree (including this one).
+         * This is what makes rank() and select() O(log n).
+         */
+        private int subtree_size;
         /** The data stored at this node */
         public U data;
 
@@ -55,6 +45,7 @@ public class AVLTree<T extends Comparable<T>> {
             lchild = null;
             rchild = null;
             subtree_height = 0;
+            subtree_size = 1;
             data = u;
         }
 
@@ -70,6 +61,18 @@ public class AVLTree<T extends Comparable<T>> {
             return n.subtree_height;
         }
 
+        /** Get the size of a Node.
+         * This is static to allow size(null).
+         * @param n The node to get the size of
+         * @return The number of nodes in n as a subtree
+         */
+        public static <U extends Comparable<U>> int size(Node<U> n) {
+            if (n == null) {
+                return 0;
+            }
+            return n.subtree_size;
+        }
+
         /** Represent a side to make the rotations a bit more generic */
         public enum Side {
             LEFT,
@@ -105,7 +108,7 @@ public class AVLTree<T extends Comparable<T>> {
         }
 
         /** Set the child of this node.
-         * This method also updates the cached subtree heights.
+         * This method also updates the cached subtree height and size.
          * @param s The side to set.
          * @param n The node to set the child of
          */
@@ -124,17 +127,20 @@ public class AVLTree<T extends Comparable<T>> {
             else {
                 subtree_height = lheight + 1;
             }
+            subtree_size = Node.<U>size(lchild) + Node.<U>size(rchild) + 1;
         }
         
         /** Perform a tree rotation.
          * @param s Which type of rotation to perform.
          * @param n The node about which to rotate.
          */
-        public static <U extends Comparable<U>> Node<U> rotate(Side s, Node<U> n) {
+        public static <U extends Comparable<U>>
+        Node<U> rotate(Side s, Node<U> n) {
             Node<U> cld = n.child(otherSide(s));
             Node<U> tmp = cld.child(s);
-            cld.setChild(s, n);
+            //n first, so cld sees n's new height and size
             n.setChild(otherSide(s), tmp);
+            cld.setChild(s, n);
             return cld;
         }
 
@@ -154,52 +160,31 @@ public class AVLTree<T extends Comparable<T>> {
             return 0;
         }
 
+        /** Restore the AVL invariant at a node.
+         * Precondition: each subtree must be properly balanced, and the
+         * heights must differ by at most 2 (true after one insert or
+         * delete below n).
+         * @param n The node
+         * @return The new root of the subtree
+         */
         public static <U extends Comparable<U>> Node<U> rebalance(Node<U> n) {
-            //precondition: each subtree must be properly balanced
-            if (balance(n) == 2 && balance(n.child(RIGHT)) == 1) {
-                return Node.<U>rotate(LEFT, n);
-            }
-            if (balance(n) == 2 && balance(n.child(RIGHT)) == -1) {
-                n.setChild(RIGHT, Node.<U>rotate(RIGHT, n.rchild));
+            if (balance(n) == 2) {
+                //after a delete the child can be level, which only needs
+                //the single rotation
+                if (balance(n.child(RIGHT)) < 0) {
+                    n.setChild(RIGHT, Node.<U>rotate(RIGHT, n.rchild));
+                }
                 return Node.<U>rotate(LEFT, n);
             }
-            if (balance(n) == -2 && balance(n.child(LEFT)) == -1) {
-                return Node.<U>rotate(RIGHT, n);
-            }
-            if (balance(n) == -2 && balance(n.child(LEFT)) == 1) {
-                n.setChild(LEFT, Node.<U>rotate(LEFT, n.lchild));
+            if (balance(n) == -2) {
+                if (balance(n.child(LEFT)) > 0) {
+                    n.setChild(LEFT, Node.<U>rotate(LEFT, n.lchild));
+                }
                 return Node.<U>rotate(RIGHT, n);
             }
             return n;
         }
 
-        //we use error class because we need to both propogate errors AND
-        //also need to keep working if there's a failure
-        /** Insert a node.
-         * This insert method preserves the AVL invariant.
-         * @param n The subtree to insert into.
-         * @param u The data to insert
-         * @return The new root of the tree (may change due to rotations)
-         */
-        public static <U extends Comparable<U>>
-        Error<Node<U>> insert(Node<U> n, U u) {
-            if (n == null) {
-                return new Error<Node<U>>(new Node<U>(u));
-            }
-            int i = u.compareTo(n.data);
-            if (i != 0) {
-                Side s = (i < 0) ? LEFT : RIGHT;
-                Error<Node<U>> e = Node.<U>insert(n.child(s), u);
-                n.setChild(s, Node.<U>rebalance(e.value));
-                e.value = n;
-                return e;
-            }
-            //Node is already in the tree - error
-            Error<Node<U>> e = new Error<Node<U>>(n);
-            e.set();
-            return e;
-        }
-        
         /** Get a node from the tree.
          * @param n The tree to search
          * @param u The data to search for
@@ -230,19 +215,253 @@ public class AVLTree<T extends Comparable<T>> {
             q.offer(n.data);
             Node.<U>enqueue(n.rchild, q);
         }
+
+        /** Insert the elements of this tree with ranks in [from, to) into
+         * a queue, in sorted order.  Subtrees entirely outside the range
+         * are skipped using their sizes.
+         * @param n The tree to traverse
+         * @param from The first rank (within n) to enqueue
+         * @param to One past the last rank (within n) to enqueue
+         * @param q The queue into which to insert the elements
+         */
+        public static <U extends Comparable<U>>
+        void enqueue(Node<U> n, int from, int to, Queue<U> q) {
+            if (n == null || from >= to) return;
+            int ls = size(n.lchild);
+            if (from < ls) {
+                Node.<U>enqueue(n.lchild, from, to, q);
+            }
+            if (from <= ls && ls < to) {
+                q.offer(n.data);
+            }
+            if (to > ls + 1) {
+                Node.<U>enqueue(n.rchild, from - ls - 1, to - ls - 1, q);
+            }
+        }
     }
     /** The root of the AVL Tree */
     private Node<T> root;
 
+    /** Scratch space for insert() and delete():  the nodes from the root
+     * down to where the change is made.  AVL trees are at most about
+     * 1.44 log2(n) deep, so 64 levels is plenty for any tree that fits in
+     * memory.
+     */
+    private Node<T>[] path;
+
+    /** Scratch space for insert() and delete():  bit k is set if the path
+     * goes right from path[k]
+     */
+    private long sides;
+
+    /** Get the scratch path, allocating it the first time.
+     * @return The path array
+     */
+    @SuppressWarnings("unchecked")
+    private Node<T>[] path() {
+        if (path == null) {
+            path = (Node<T>[]) new Node<?>[64];
+        }
+        return path;
+    }
+
+    /** Walk back up the scratch path after a change below it, updating
+     * heights and sizes and rebalancing as we go.
+     * @param depth The number of nodes on the path
+     * @param child The new subtree below path[depth - 1]
+     */
+    private void fixPath(int depth, Node<T> child) {
+        Node<T>[] p = path;
+        while (depth > 0) {
+            Node<T> n = p[--depth];
+            n.setChild(((sides >>> depth) & 1) != 0 ? Node.RIGHT : Node.LEFT,
+                       child);
+            child = Node.<T>rebalance(n);
+            p[depth] = null;
+        }
+        root = child;
+    }
+
     /** Insert data into the tree.
+     * This is iterative, and allocates nothing but the new node.
      * @param t The data to insert
      * @return True if successful, false if the data was already present.
      */
     public boolean insert(T t) {
-        Node.Error<Node<T>> e = Node.<T>insert(root, t);
-        //need to reset root in case root has changed...
-        root = Node.<T>rebalance(e.value);
-        return !(e.error);
+        Node<T>[] p = path();
+        int depth = 0;
+        sides = 0;
+        for (Node<T> n = root; n != null;) {
+            int i = t.compareTo(n.data);
+            if (i == 0) {
+                //already in the tree - just forget the path
+                Arrays.fill(p, 0, depth, null);
+                return false;
+            }
+            p[depth] = n;
+            if (i > 0) {
+                sides |= 1L << depth;
+                n = n.rchild;
+            }
+            else {
+                n = n.lchild;
+            }
+            ++depth;
+        }
+        fixPath(depth, new Node<T>(t));
+        return true;
+    }
+
+    /** Remove data from the tree.
+     * This is iterative, and allocates nothing.
+     * @param t The data to remove
+     * @return True if it was removed, false if it wasn't in the tree
+     */
+    public boolean delete(T t) {
+        Node<T>[] p = path();
+        int depth = 0;
+        sides = 0;
+        Node<T> n = root;
+        while (n != null) {
+            int i = t.compareTo(n.data);
+            if (i == 0) {
+                break;
+            }
+            p[depth] = n;
+            if (i > 0) {
+                sides |= 1L << depth;
+                n = n.rchild;
+            }
+            else {
+                n = n.lchild;
+            }
+            ++depth;
+        }
+        if (n == null) {
+            Arrays.fill(p, 0, depth, null);
+            return false;
+        }
+        if (n.lchild != null && n.rchild != null) {
+            //replace n's data with its successor's, and remove that
+            //node instead (it has no left child)
+            Node<T> target = n;
+            p[depth] = n;
+            sides |= 1L << depth;
+            ++depth;
+            n = n.rchild;
+            while (n.lchild != null) {
+                p[depth++] = n;
+                n = n.lchild;
+            }
+            target.data = n.data;
+        }
+        fixPath(depth, (n.lchild != null) ? n.lchild : n.rchild);
+        return true;
+    }
+
+    /** Get the number of elements in the tree.
+     * @return The size
+     */
+    public int size() {
+        return Node.<T>size(root);
+    }
+
+    /** Measure the heap this tree uses (see Footprint).  The data is
+     * only counted if it is Strings.
+     * @return The footprint
+     */
+    public Footprint footprint() {
+        Footprint f = new Footprint("AVLTree");
+        ArrayDeque<Node<T>> stack = new ArrayDeque<Node<T>>();
+        if (root != null) {
+            stack.push(root);
+        }
+        while (!stack.isEmpty()) {
+            Node<T> n = stack.pop();
+            ++f.nodes;
+            ++f.words;
+            //lchild, rchild, subtree_height, subtree_size, data
+            f.add("nodes", Footprint.object(3 * Footprint.REF + 4 + 4));
+            if (n.data instanceof String) {
+                f.addString((String) n.data);
+            }
+            if (n.lchild != null) {
+                stack.push(n.lchild);
+            }
+            if (n.rchild != null) {
+                stack.push(n.rchild);
+            }
+        }
+        if (path != null) {
+            f.add("scratch path", Footprint.array(Footprint.REF,
+                                                  path.length));
+        }
+        return f;
+    }
+
+    /** Get the rank of data, i.e. the number of elements less than it.
+     * The data doesn't have to be in the tree.  O(log n).
+     * @param t The data
+     * @return The number of elements that compare less than t
+     */
+    public int rank(T t) {
+        int r = 0;
+        Node<T> n = root;
+        while (n != null) {
+            int i = t.compareTo(n.data);
+            if (i <= 0) {
+                if (i == 0) {
+                    return r + Node.<T>size(n.lchild);
+                }
+                n = n.lchild;
+            }
+            else {
+                r += Node.<T>size(n.lchild) + 1;
+                n = n.rchild;
+            }
+        }
+        return r;
+    }
+
+    /** Get the element with a given rank.  O(log n).
+     * @param k The rank, [0, size())
+     * @return The k'th smallest element, or null if k is out of range
+     */
+    public T select(int k) {
+        Node<T> n = root;
+        while (n != null) {
+            int ls = Node.<T>size(n.lchild);
+            if (k < ls) {
+                n = n.lchild;
+            }
+            else if (k == ls) {
+                return n.data;
+            }
+            else {
+                k -= ls + 1;
+                n = n.rchild;
+            }
+        }
+        return null;
+    }
+
+    /** Count the elements in a range.  O(log n).
+     * @param lo The low end of the range (inclusive)
+     * @param hi The high end of the range (exclusive)
+     * @return The number of elements e with lo &lt;= e &lt; hi
+     */
+    public int count(T lo, T hi) {
+        return Math.max(0, rank(hi) - rank(lo));
+    }
+
+    /** Enqueue the elements with ranks in a range, in sorted order.
+     * E.g. enqueue(0, 10, q) gets the 10 smallest.  O(log n + to - from).
+     * @param from The first rank
+     * @param to One past the last rank
+     * @param q The queue into which to enqueue
+     */
+    public void enqueue(int from, int to, Queue<T> q) {
+        Node.<T>enqueue(root, Math.max(from, 0), to, q);
     }
 
     /** The height of the tree
@@ -0,0 +1,279 @@
+import java.util.Arrays;
+
+/** The letters a Trie holds, numbered densely from 0.
+ *
+ * A Trie node has one child slot per letter and its summaries have one
+ * mask bit per letter, so the letters need codes 0, 1, 2...  In English
+ * the code of c is just c - 'A'.  Other languages have more letters (the
+ * German umlauts, the Spanish enye...), tiles that are more than one
+ * letter (the Spanish CH, LL and RR), and characters that their word
+ * games spell as other letters (French ignores accents, German spells the
+ * sharp s as SS).  An Alphabet is made from:
+ * <ul>
+ *  <li> letters:  the letters in order (which is the order Trie.enqueue()
+ *       and friends use).  A letter is one uppercase character or a tile
+ *       of several.  There can be at most 32, since masks are ints. </li>
+ *  <li> folds:  rules for the characters that are spelled as other
+ *       letters, e.g. that the accented Es are spelled E, or that the
+ *       sharp s is spelled SS. </li>
+ * </ul>
+ * A Trie holds each letter as one char:  the letter itself, or for a tile
+ * a private use character (U+E000 on) standing for it.  encode() turns a
+ * word into those chars, and decode() turns them back.  Looking up the
+ * code of a char is one array access, about as cheap as c - 'A', and the
+ * child arrays are only as wide as the alphabet, so a Trie in another
+ * language costs about what the English one does per node.
+ */
+public class Alphabet {
+    /** A-Z, coded c - 'A' (which Board and friends rely on) */
+    public static final Alphabet ENGLISH =
+            new Alphabet(split("ABCDEFGHIJKLMNOPQRSTUVWXYZ"));
+
+    /** A-Z, with accents and ligatures folded away as French word games
+     * do (E acute is E, the OE ligature is OE...)
+     */
+    public static final Alphabet FRENCH =
+            new Alphabet(split("ABCDEFGHIJKLMNOPQRSTUVWXYZ"),
+                         "\u00c0\u00c2\u00c4=A", "\u00c7=C",
+                         "\u00c8\u00c9\u00ca\u00cb=E", "\u00ce\u00cf=I",
+                         "\u00d4\u00d6=O", "\u00d9\u00db\u00dc=U",
+                         "\u0178=Y", "\u0152=OE", "\u00c6=AE");
+
+    /** A-Z and the umlauted A, O and U, with the sharp s spelled SS */
+    public static final Alphabet GERMAN =
+            new Alphabet(split("ABCDEFGHIJKLMNOPQRSTUVWXYZ" +
+                               "\u00c4\u00d6\u00dc"),
+                         "\u00df\u1e9e=SS");
+
+    /** A-Z, enye and the tiles CH, LL and RR (in the traditional
+     * order), with accents folded away
+     */
+    public static final Alphabet SPANISH =
+            new Alphabet(new String[] {
+                             "A", "B", "C", "CH", "D", "E", "F", "G", "H",
+                             "I", "J", "K", "L", "LL", "M", "N", "\u00d1",
+                             "O", "P", "Q", "R", "RR", "S", "T", "U", "V",
+                             "W", "X", "Y", "Z" },
+                         "\u00c1=A", "\u00c9=E", "\u00cd=I", "\u00d3=O",
+                         "\u00da\u00dc=U");
+
+    /** The first char used for a tile */
+    private static final char TILE_BASE = '\ue000';
+
+    /** The letters (as spelled), by code */
+    private final String[] letters;
+    /** The char a Trie holds for each letter, by code */
+    private final char[] chars;
+    /** The code of each char, indexed by char (-1 if it isn't a letter).
+     * Trie's hot paths read this directly.
+     */
+    final byte[] codes;
+    /** The codes of the tiles, longest first */
+    private final int[] tiles;
+    /** The encoded spelling of each folded char, indexed by char (null
+     * if it isn't folded)
+     */
+    private final String[] folds;
+
+    /** Create an Alphabet.
+     * @param letters The letters in order (uppercase), at most 32
+     * @param folds Rules "XYZ=ABC", meaning that each of X, Y and Z (and
+     *              their lowercase forms) is spelled as the letters ABC
+     * @throws IllegalArgumentException If there are too many letters, a
+     *         letter is repeated, or a fold has no "=", nothing before it,
+     *         or isn't spelled with letters after it
+     */
+    public Alphabet(String[] letters, String... folds) {
+        if (letters.length > 32) {
+            throw new IllegalArgumentException("more than 32 letters");
+        }
+        this.letters = letters.clone();
+        chars = new char[letters.length];
+        int ntiles = 0;
+        char max = 0;
+        for (int i = 0; i < letters.length; ++i) {
+            String s = letters[i];
+            if (s.length() == 1) {
+                chars[i] = s.charAt(0);
+            }
+            else {
+                chars[i] = (char) (TILE_BASE + ntiles++);
+            }
+            max = (char) Math.max(max, chars[i]);
+        }
+        codes = new byte[max + 1];
+        Arrays.fill(codes, (byte) -1);
+        tiles = new int[ntiles];
+        ntiles = 0;
+        for (int i = 0; i < letters.length; ++i) {
+            if (codes[chars[i]] >= 0) {
+                throw new IllegalArgumentException(letters[i] + " twice");
+            }
+            codes[chars[i]] = (byte) i;
+            if (letters[i].length() > 1) {
+                tiles[ntiles++] = i;
+            }
+        }
+        //longest first, so e.g. a tile RR beats R
+        for (int i = 1; i < tiles.length; ++i) {
+            for (int j = i; j > 0 && letters[tiles[j]].length()
+                                     > letters[tiles[j - 1]].length(); --j)
+            {
+                int t = tiles[j];
+                tiles[j] = tiles[j - 1];
+                tiles[j - 1] = t;
+            }
+        }
+
+        int maxFold = -1;
+        for (String f : folds) {
+            for (int i = 0; i < f.indexOf('='); ++i) {
+                maxFold = Math.max(maxFold,
+                                   Character.toLowerCase(f.charAt(i)));
+                maxFold = Math.max(maxFold, f.charAt(i));
+            }
+        }
+        this.folds = new String[maxFold + 1];
+        for (String f : folds) {
+            int eq = f.indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException("bad fold " + f + ":  "
+                        + ((eq < 0) ? "no '='" : "nothing before '='"));
+            }
+            String to = encode(f.substring(eq + 1));
+            if (to == null) {
+                throw new IllegalArgumentException("bad fold " + f + ":  "
+                        + "can't spell " + f.substring(eq + 1));
+            }
+            for (int i = 0; i < eq; ++i) {
+                this.folds[f.charAt(i)] = to;
+                this.folds[Character.toLowerCase(f.charAt(i))] = to;
+            }
+        }
+    }
+
+    /** Split a string into one letter strings.
+     * @param s The string
+     * @return Its letters
+     */
+    private static String[] split(String s) {
+        String[] a = new String[s.length()];
+        for (int i = 0; i < a.length; ++i) {
+            a[i] = s.substring(i, i + 1);
+        }
+        return a;
+    }
+
+    /** Get the number of letters.
+     * @return The number of letters (the width of a Trie node)
+     */
+    public int size() {
+        return letters.length;
+    }
+
+    /** Get the code of a char held by a Trie.
+     * @param c The char (uppercase, as from encode())
+     * @return The code, or -1 if c isn't a letter
+     */
+    public int index(char c) {
+        return (c < codes.length) ? codes[c] : -1;
+    }
+
+    /** Get the char a Trie holds for a letter.
+     * @param i The code
+     * @return The char
+     */
+    public char letter(int i) {
+        return chars[i];
+    }
+
+    /** Get how a letter is spelled, e.g. "CH" for a tile.
+     * @param i The code
+     * @return The spelling
+     */
+    public String spelling(int i) {
+        return letters[i];
+    }
+
+    /** Turn a word into the chars a Trie holds for it:  uppercase, folded
+     * and with tiles replaced by their chars.  Tiles are matched greedily,
+     * longest first.
+     * @param s The word (case insensitive)
+     * @return The encoded word (s itself if it needs no change), or null
+     *         if it can't be spelled in this alphabet
+     */
+    public String encode(String s) {
+        return encode(s, "");
+    }
+
+    /** Turn a word or pattern into the chars a Trie holds for it, see
+     * encode(String).
+     * @param s The word (case insensitive)
+     * @param wild Characters to pass through unchanged (e.g. "*?")
+     * @return The encoded word, or null if it can't be spelled
+     */
+    public String encode(String s, String wild) {
+        int i = 0;
+        if (tiles.length == 0) {
+            while (i < s.length() && index(s.charAt(i)) >= 0) {
+                ++i;
+            }
+            if (i == s.length()) {
+                return s;   //the common case:  already uppercase letters
+            }
+        }
+        StringBuilder sb = new StringBuilder(s.length());
+        sb.append(s, 0, i);
+        while (i < s.length()) {
+            int t = tileAt(s, i);
+            if (t >= 0) {
+                sb.append(chars[t]);
+                i += letters[t].length();
+                continue;
+            }
+            char c = s.charAt(i++);
+            char u = Character.toUpperCase(c);
+            if (index(u) >= 0 || wild.indexOf(c) >= 0) {
+                sb.append((index(u) >= 0) ? u : c);
+            }
+            else if (c < folds.length && folds[c] != null) {
+                sb.append(folds[c]);
+            }
+            else {
+                return null;
+            }
+        }
+        return sb.toString();
+    }
+
+    /** Find the tile that a word has at some position.
+     * @param s The word
+     * @param i The position
+     * @return The code of the longest tile at i, or -1 if there isn't one
+     */
+    private int tileAt(String s, int i) {
+        for (int t : tiles) {
+            if (s.regionMatches(true, i, letters[t], 0, letters[t].length())) {
+                return t;
+            }
+        }
+        return -1;
+    }
+
+    /** Turn the chars a Trie holds back into a word, spelling out tiles.
+     * @param s The encoded word
+     * @return The word (s itself if it has no tiles)
+     */
+    public String decode(String s) {
+        if (tiles.length == 0) {
+            return s;
+        }
+        StringBuilder sb = new StringBuilder(s.length() + 4);
+        for (int i = 0; i < s.length(); ++i) {
+            char c = s.charAt(i);
+            int k = index(c);
+            sb.append((k >= 0) ? letters[k] : String.valueOf(c));
+        }
+        return sb.toString();
+    }
+}
@@ -1,5 +1,8 @@
 import java.util.*;
 import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
@@ -7,6 +10,20 @@ public class Board {
     private char[][] board;
     private Trie englishWords;
 
+    /* Solve counts for the metrics endpoint (see Metrics), by method */
+    private static final Metrics.Solve ALL_WORDS =
+            Metrics.solve("allWords");
+    private static final Metrics.Solve GET_WORDS =
+            Metrics.solve("getWords");
+    private static final Metrics.Solve FILTERED = Metrics.solve("filter");
+    private static final Metrics.Solve ALL_PATHS =
+            Metrics.solve("allPaths");
+    private static final Metrics.Solve SCORE = Metrics.solve("score");
+    private static final Metrics.Solve HASH_TABLE =
+            Metrics.solve("hashTable");
+    private static final Metrics.Solve LOUDS = Metrics.solve("loudsTrie");
+    private static final Metrics.Solve PACKED = Metrics.solve("packedTrie");
+
   /**
    * Constructs the board, using the current time as the Random Number
    * Generator's seed.
@@ -17,7 +34,9 @@ public class Board {
 
   /**
    * Construct the board, creating one of your data structure, and filling
-   * it with the words in the English dictionary.
+   * it with the words in the English dictionary.  The dictionary is
+   * loaded lazily (see Trie.loadLazy()), so a single solve only builds
+   * the parts of it that the board reaches.
    *
    * Prints a stack trace if the file "american-english" is not in the
    * directory.
@@ -25,65 +44,168 @@ public class Board {
    * seeds should get you identical dice rolls and placement.
    */
     public Board(long seed) {
-        newGame(seed);
-        englishWords = new Trie();
+        this(seed, Trie.loadLazy("american-english"));
+    }
+
+  /**
+   * Construct the board with an existing dictionary.  Use this when
+   * making many boards - loading the dictionary costs far more than
+   * rolling the dice, and the dictionary is never modified by a Board so
+   * it can be shared.
+   * @param seed the seed for the random object
+   * @param dictionary the dictionary, e.g. from loadDictionary()
+   */
+    public Board(long seed, Trie dictionary) {
+        board = new char[5][5];
+        reroll(seed);
+        englishWords = dictionary;
+    }
+
+  /**
+   * Load a dictionary from a file of whitespace separated words.
+   *
+   * Prints a stack trace if the file is not found, and returns whatever
+   * was read (i.e. an empty Trie).
+   * @param filename the word file, e.g. "american-english"
+   * @return the dictionary
+   */
+    public static Trie loadDictionary(String filename) {
+        long time = System.nanoTime();
+        Trie words = new Trie();
         try {
-            Scanner s = new Scanner(new File("american-english"));
+            Scanner s = new Scanner(new File(filename));
             while (s.hasNext()) {
-                englishWords.insertCase(s.next());
+                words.insertCase(s.next());
             }
             s.close();
         }
         catch (FileNotFoundException fnfe) {
             fnfe.printStackTrace();
         }
+        Metrics.loaded(words, time);
+        return words;
     }
 
   /**
-   * Used to roll the dice, and fill the Boggle board with the results.
-   * Based on actual Boggle dice.
+   * Load a dictionary as loadDictionary(String) does, building it on
+   * several threads (see Trie.build()).  For a file that decodes cleanly
+   * in the default charset the result is the same, ids and all.
+   *
+   * A file that doesn't (e.g. UTF-8 accents under an ASCII default) is
+   * where the two part ways:  Scanner gives up at the bad input, and
+   * loadDictionary(String) can return few or no words, while this
+   * decodes the bad bytes as replacement characters, skips the words
+   * they are in (they can't be spelled) and keeps the rest.
+   *
+   * Prints a stack trace if the file can't be read, and returns an
+   * empty Trie.
+   * @param filename the word file, e.g. "american-english"
+   * @param threads the number of threads to build it on
+   * @return the dictionary
    */
-    private void newGame(long seed) {
-        board = new char[5][5];
-        Random r = new Random(seed);
-        char[] dieRolls = new char[25];
-
-        dieRolls[0] = new String("AAAFRS").charAt(r.nextInt(6));
-        dieRolls[1] = new String("AAEEEE").charAt(r.nextInt(6));
-        dieRolls[2] = new String("AAFIRS").charAt(r.nextInt(6));
-        dieRolls[3] = new String("ADENNN").charAt(r.nextInt(6));
-        dieRolls[4] = new String("AEEEEM").charAt(r.nextInt(6));
-        dieRolls[5] = new String("AEEGMU").charAt(r.nextInt(6));
-        dieRolls[6] = new String("AEGMNN").charAt(r.nextInt(6));
-        dieRolls[7] = new String("AFIRSY").charAt(r.nextInt(6));
-        dieRolls[8] = new String("BJKQXZ").charAt(r.nextInt(6));
-        dieRolls[9] = new String("CCENST").charAt(r.nextInt(6));
-        dieRolls[10] = new String("CEIILT").charAt(r.nextInt(6));
-        dieRolls[11] = new String("CEILPT").charAt(r.nextInt(6));
-        dieRolls[12] = new String("CEIPST").charAt(r.nextInt(6));
-        dieRolls[13] = new String("DDHNOT").charAt(r.nextInt(6));
-        dieRolls[14] = new String("DHHLOR").charAt(r.nextInt(6));
-        dieRolls[15] = new String("DHLNOR").charAt(r.nextInt(6));
-        dieRolls[16] = new String("DHLNOR").charAt(r.nextInt(6));
-        dieRolls[17] = new String("EIIITT").charAt(r.nextInt(6));
-        dieRolls[18] = new String("EMOTTT").charAt(r.nextInt(6));
-        dieRolls[19] = new String("ENSSSU").charAt(r.nextInt(6));
-        dieRolls[20] = new String("FIPRSY").charAt(r.nextInt(6));
-        dieRolls[21] = new String("GORRVW").charAt(r.nextInt(6));
-        dieRolls[22] = new String("IPRRRY").charAt(r.nextInt(6));
-        dieRolls[23] = new String("NOOTUW").charAt(r.nextInt(6));
-        dieRolls[24] = new String("OOOTTU").charAt(r.nextInt(6));
-        List<Integer> permute = new LinkedList<Integer>();
+    public static Trie loadDictionary(String filename, int threads) {
+        long time = System.nanoTime();
+        String text;
+        try {
+            text = new String(Files.readAllBytes(Paths.get(filename)),
+                              Charset.defaultCharset());
+        }
+        catch (IOException ioe) {
+            ioe.printStackTrace();
+            return new Trie();
+        }
+        //the same tokens as Scanner.next(), for a file that decodes
+        List<String> words = new ArrayList<String>();
+        for (String s : text.split("\\p{javaWhitespace}+")) {
+            if (s.length() > 0) {
+                words.add(s);
+            }
+        }
+        Trie t = Trie.build(words, Alphabet.ENGLISH, threads);
+        Metrics.loaded(t, time);
+        return t;
+    }
+
+  /**
+   * Get the letter on a cell of the board.  A 'Q' means "Qu".
+   * @param row the row, [0, 5)
+   * @param column the column, [0, 5)
+   * @return the letter
+   */
+    public char letterAt(int row, int column) {
+        return board[row][column];
+    }
+
+    /** The faces of the dice, as on actual Boggle dice */
+    private static final String[] DICE = {
+        "AAAFRS", "AAEEEE", "AAFIRS", "ADENNN", "AEEEEM",
+        "AEEGMU", "AEGMNN", "AFIRSY", "BJKQXZ", "CCENST",
+        "CEIILT", "CEILPT", "CEIPST", "DDHNOT", "DHHLOR",
+        "DHLNOR", "DHLNOR", "EIIITT", "EMOTTT", "ENSSSU",
+        "FIPRSY", "GORRVW", "IPRRRY", "NOOTUW", "OOOTTU"
+    };
+
+    /** The random number generator, reseeded by reroll() */
+    private Random random = new Random();
+    /** Scratch for reroll():  the face each die landed on */
+    private char[] rolls = new char[25];
+    /** Scratch for reroll():  which die goes in each cell */
+    private int[] order = new int[25];
+
+  /**
+   * Roll the dice again and fill the board with the results, as if this
+   * were a new Board(seed) (the same seed gives the same board), but
+   * without allocating anything.  The dictionary stays the same.
+   *
+   * The dice are rolled in order, then shuffled into the cells with the
+   * same calls to the Random that Collections.shuffle() makes, so boards
+   * haven't changed from when this went through a List.
+   * @param seed the seed for the random object
+   */
+    public void reroll(long seed) {
+        random.setSeed(seed);
         for (int i = 0; i < 25; i++) {
-            permute.add(new Integer(i));
+            rolls[i] = DICE[i].charAt(random.nextInt(6));
+            order[i] = i;
         }
-        Collections.shuffle(permute, r);
-        for (int row = 0; row < 5; row++) {
-            for (int c = 0; c < 5; c++) {
-                int die = permute.remove(0).intValue();
+        for (int i = 25; i > 1; i--) {
+            int j = random.nextInt(i);
+            int tmp = order[i - 1];
+            order[i - 1] = order[j];
+            order[j] = tmp;
+        }
+        for (int i = 0; i < 25; i++) {
+            board[i / 5][i % 5] = rolls[order[i]];
+        }
+    }
 
-                board[row][c] = dieRolls[die];
+  /**
+   * Set the board to a given layout, e.g. from a real game or from
+   * toString().  Whitespace is ignored, and Qu (or just Q) is one cell.
+   * The dictionary stays the same.
+   * @param layout the 25 letters, row by row
+   * @throws IllegalArgumentException if it isn't 25 letters A-Z
+   */
+    public void load(String layout) {
+        int n = 0;
+        for (int i = 0; i < layout.length(); i++) {
+            char ch = Character.toUpperCase(layout.charAt(i));
+            if (Character.isWhitespace(ch)) {
+                continue;
             }
+            if (ch < 'A' || ch > 'Z' || n == 25) {
+                throw new IllegalArgumentException("bad layout: " + layout);
+            }
+            if (ch == 'Q' && i + 1 < layout.length()
+                    && Character.toUpperCase(layout.charAt(i + 1)) == 'U')
+            {
+                i++;
+            }
+            board[n / 5][n % 5] = ch;
+            n++;
+        }
+        if (n != 25) {
+            throw new IllegalArgumentException("bad layout: " + layout);
         }
     }
 
@@ -118,31 +240,46 @@ public class Board {
     public static int countPoints(Queue<String> q) {
         int pts = 0;
         for (String s : q) {
-            switch (s.length()) {
-            case 1:
-            case 2:
-                break;
-            case 3:
-            case 4:
-                pts += 1;
-                break;
-            case 5:
-                pts += 2;
-                break;
-            case 6:
-                pts += 3;
-                break;
-            case 7:
-                pts += 5;
-                break;
-            default:
-                pts += 11;
-                break;
-            }
+            pts += points(s.length());
         }
         return pts;
     }
-    
+
+    /** NEIGHBOURS[i] lists the cells adjacent to cell i (row * 5 + col) */
+    private static final int[][] NEIGHBOURS = new int[25][];
+
+    static {
+        for (int r = 0; r < 5; ++r) {
+            for (int c = 0; c < 5; ++c) {
+                int[] tmp = new int[8];
+                int n = 0;
+                for (int y = r - 1; y <= r + 1; ++y) {
+                    for (int x = c - 1; x <= c + 1; ++x) {
+                        if (x < 0 || y < 0 || y >= 5 || x >= 5
+                                  || (y == r && x == c))
+                        {
+                            continue;
+                        }
+                        tmp[n++] = y*5 + x;
+                    }
+                }
+                NEIGHBOURS[r*5 + c] = Arrays.copyOf(tmp, n);
+            }
+        }
+    }
+
+    /** Points for a word of each length, up to 8+ letters */
+    private static final int[] POINTS = {0, 0, 0, 1, 1, 2, 3, 5, 11};
+
+  /**
+   * The number of points a word of a given length is worth.
+   * @param length the length of the word (Qu counts as two letters)
+   * @return the points
+   */
+    public static int points(int length) {
+        return POINTS[(length < 8) ? length : 8];
+    }
+
     /** A class to represent a position for the work queue */
     public static class Position {
         /** The row */
@@ -158,6 +295,146 @@ public class Board {
             column = c;
         }
     }
+
+    /** A time budget for a search.
+     * Reading the clock on every step of the search would cost more than
+     * the step itself, so expired() only looks at System.nanoTime() once
+     * every CHECK_INTERVAL calls.  A Deadline is not thread safe - give
+     * each thread its own copy.
+     */
+    public static class Deadline {
+        /** How many calls to expired() between clock reads (power of 2) */
+        private static final int CHECK_INTERVAL = 1024;
+        /** The deadline, in System.nanoTime() units */
+        private final long deadline;
+        /** Calls left until the next clock read */
+        private int countdown;
+        /** Whether the deadline has been seen to pass */
+        private boolean expired;
+
+        /** Construct a Deadline.
+         * @param nanos The deadline, in System.nanoTime() units
+         */
+        public Deadline(long nanos) {
+            deadline = nanos;
+            countdown = CHECK_INTERVAL;
+            expired = false;
+        }
+
+        /** Copy a Deadline, e.g. to hand one to another thread.
+         * @param d The Deadline to copy
+         */
+        public Deadline(Deadline d) {
+            this(d.deadline);
+        }
+
+        /** Construct a Deadline some time from now.
+         * @param millis The time budget in milliseconds
+         * @return The Deadline
+         */
+        public static Deadline after(long millis) {
+            return new Deadline(System.nanoTime() + millis * 1000000L);
+        }
+
+        /** Check whether the deadline has passed.  Cheap enough to call
+         * once per search step.
+         * @return True if the search should stop
+         */
+        public boolean expired() {
+            if (expired) {
+                return true;
+            }
+            if (--countdown > 0) {
+                return false;
+            }
+            countdown = CHECK_INTERVAL;
+            expired = (System.nanoTime() - deadline >= 0);
+            return expired;
+        }
+
+        /** Check whether the deadline has passed, reading the clock now
+         * rather than every CHECK_INTERVAL calls.  For checks between
+         * searches (e.g. before taking another starting cell), which are
+         * rare enough to afford it.
+         * @return True if the search should stop
+         */
+        public boolean passed() {
+            if (!expired) {
+                expired = (System.nanoTime() - deadline >= 0);
+            }
+            return expired;
+        }
+
+        /** Whether expired() or passed() has ever returned true.  This does
+         * not read the clock.
+         * @return True if a search using this Deadline was cut short
+         */
+        public boolean hasExpired() {
+            return expired;
+        }
+    }
+
+    /** The result of a search that may have been cut short. */
+    public static class Result {
+        /** The words found so far, in the same order as allWords() */
+        public Queue<String> words;
+        /** True if the search finished, i.e. words is every word */
+        public boolean complete;
+        /** Construct a Result
+         * @param w The words found
+         * @param c Whether the search finished
+         */
+        public Result(Queue<String> w, boolean c) {
+            words = w;
+            complete = c;
+        }
+    }
+
+    /** Order the starting cells so the most productive ones go first.
+     * A cell is rated by how many of its neighbours extend its letter to
+     * a valid two letter prefix, which is a decent guess at how many
+     * words start there.  Used by the budgeted searches so that a
+     * partial result holds as many words as possible.
+     * @return The 25 positions, best first
+     */
+    private Position[] startOrder() {
+        Position[] order = new Position[25];
+        final int[][] rating = new int[5][5];
+
+        for (int r = 0; r < 5; ++r) {
+            for (int c = 0; c < 5; ++c) {
+                order[r*5 + c] = new Position(r, c);
+                Trie.SearchIterator si = englishWords.beginSearch();
+                si.next(board[r][c]);
+                if (board[r][c] == 'Q') {
+                    si.next('U');
+                }
+                if (!si.reachable()) {
+                    continue;
+                }
+                for (int y = r - 1; y <= r + 1; ++y) {
+                    for (int x = c - 1; x <= c + 1; ++x) {
+                        if (x < 0 || y < 0 || y >= 5 || x >= 5
+                                  || (y == r && x == c))
+                        {
+                            continue;
+                        }
+                        Trie.SearchIterator it = new Trie.SearchIterator(si);
+                        it.next(board[y][x]);
+                        if (it.reachable()) {
+                            ++rating[r][c];
+                        }
+                    }
+                }
+            }
+        }
+        Arrays.sort(order, new Comparator<Position>() {
+            public int compare(Position a, Position b) {
+                return rating[b.row][b.column] - rating[a.row][a.column];
+            }
+        });
+        return order;
+    }
     
     /** A multithreaded version of allWords().
      * The difference between this and allWords() is that this partitions
@@ -165,10 +442,17 @@ public class Board {
      * each thread one of these groups.
      */
     public Queue<String> getWords() {
-        Trie foundwords = new Trie();
-        int numthreads = 4; //should be a good balance and saturate a
-                            //quad-core machine.
-        CountDownLatch latch = new CountDownLatch(numthreads);
+        return getWords(THREADS);
+    }
+
+    /** A version of getWords() with a given number of threads.
+     * @param numthreads The number of threads to search with
+     * @return The words on the board
+     */
+    public Queue<String> getWords(int numthreads) {
+        long time = System.nanoTime();
+        long bytes = Metrics.allocated();
+        ConcurrentTrie foundwords = new ConcurrentTrie();
         ConcurrentLinkedQueue<Board.Position> q = 
                 new ConcurrentLinkedQueue<Board.Position>();
 
@@ -177,11 +461,59 @@ public class Board {
                 q.offer(new Position(r, c));
             }
         }
-        
+        runWorkers(q, foundwords, null, numthreads);
+        Queue<String> words = foundwords.enqueue();
+        GET_WORDS.stop(time, bytes);
+        return words;
+    }
+
+    /** A budgeted version of getWords().
+     * The most productive starting cells are handed out first, each
+     * thread tries the most productive prefixes first (see
+     * bestNeighbours()), and every thread stops as soon as the deadline
+     * passes, without taking another starting cell.
+     * @param d The deadline (each thread gets its own copy)
+     * @return The words found, and whether the search finished
+     */
+    public Result getWords(Deadline d) {
+        long time = System.nanoTime();
+        long bytes = Metrics.allocated();
+        ConcurrentTrie foundwords = new ConcurrentTrie();
+        ConcurrentLinkedQueue<Board.Position> q = 
+                new ConcurrentLinkedQueue<Board.Position>();
+
+        for (Position p : startOrder()) {
+            q.offer(p);
+        }
+        boolean complete = runWorkers(q, foundwords, d, THREADS);
+        Result res = new Result(foundwords.enqueue(), complete);
+        GET_WORDS.stop(time, bytes);
+        return res;
+    }
+
+    /** The number of threads getWords() uses by default */
+    private static final int THREADS = 4;   //should be a good balance and
+                                            //saturate a quad-core machine.
+
+    /** Run the WorkThreads for getWords() and wait for them.
+     * @param q The work queue of starting positions
+     * @param foundwords The shared set of found words
+     * @param d The deadline, or null for none
+     * @param numthreads The number of threads
+     * @return True if every thread finished its search
+     */
+    private boolean runWorkers(ConcurrentLinkedQueue<Board.Position> q,
+                               ConcurrentTrie foundwords, Deadline d,
+                               int numthreads)
+    {
+        CountDownLatch latch = new CountDownLatch(numthreads);
+        WorkThread[] threads = new WorkThread[numthreads];
+
         for (int i = 0; i < numthreads; ++i) {
-            WorkThread t = new WorkThread(board, englishWords, foundwords,
-                                          q, latch);
-            t.start();
+            threads[i] = new WorkThread(board, englishWords, foundwords,
+                                        q, latch,
+                                        (d == null) ? null : new Deadline(d));
+            threads[i].start();
         }
 
         //wait for all threads to finish
@@ -195,7 +527,22 @@ public class Board {
             }
         }
 
-        return foundwords.enqueue();
+        for (WorkThread t : threads) {
+            if (!t.finished()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+  /**
+   * Find every word on the board with this process's engine (see
+   * Engine.current()).  The result is the same as allWords(); which
+   * code finds it is a deployment choice.
+   * @return the words
+   */
+    public Queue<String> solve() {
+        return Engine.current().allWords(this);
     }
 
   /**
@@ -203,6 +550,8 @@ public class Board {
    * the Boggle board. 
    */
     public Queue<String> allWords() {
+        long time = System.nanoTime();
+        long bytes = Metrics.allocated();
         boolean[][]used = new boolean[5][5];    //Start used as all false
         Trie foundwords = new Trie();
 
@@ -223,7 +572,9 @@ public class Board {
                 used[r][c] = false;
             }
         }
-        return foundwords.enqueue();
+        Queue<String> words = foundwords.enqueue();
+        ALL_WORDS.stop(time, bytes);
+        return words;
     }
 
   /** The recursive version of the above.
@@ -286,4 +637,607 @@ public class Board {
             }
         }
     }
+
+  /**
+   * A budgeted version of allWords().
+   * Starting cells are searched best first (see startOrder()), and so are
+   * the ways to extend each prefix (see bestNeighbours()).  The search
+   * stops as soon as the deadline passes, returning whatever it has found
+   * so far.
+   * @param d The deadline
+   * @return The words found, and whether the search finished
+   */
+    public Result allWords(Deadline d) {
+        long time = System.nanoTime();
+        long bytes = Metrics.allocated();
+        boolean[][]used = new boolean[5][5];
+        Trie foundwords = new Trie();
+        boolean complete = true;
+
+        for (Position p : startOrder()) {
+            int r = p.row;
+            int c = p.column;
+
+            used[r][c] = true;
+            char ch = board[r][c];
+
+            Trie.SearchIterator it = englishWords.beginSearch();
+            it.next(ch);
+            if (ch == 'Q') {
+                it.next('U');
+            }
+            complete = allWords(it, r, c, used, foundwords, d);
+            used[r][c] = false;
+            if (!complete) {
+                break;
+            }
+        }
+        Result res = new Result(foundwords.enqueue(), complete);
+        ALL_WORDS.stop(time, bytes);
+        return res;
+    }
+
+  /** The recursive version of allWords(Deadline).
+   * This is the same search as allWords(si, r, c, used, foundwords), but
+   * it tries the neighbours best first and gives up once the deadline
+   * passes.
+   * @param d   The deadline
+   * @return    False if the search was cut short
+   */
+    private boolean allWords(Trie.SearchIterator si, int r, int c,
+                             boolean[][]used, Trie foundwords, Deadline d)
+    {
+        if (d.expired()) {
+            return false;
+        }
+        if (!si.reachable()) {
+            return true;
+        }
+        if (si.inSet()) {
+            foundwords.insertForeignIt(si);
+        }
+        int[] cells = new int[8];
+        Trie.SearchIterator[] its = new Trie.SearchIterator[8];
+        int n = bestNeighbours(board, si, r, c, used, cells, its);
+        for (int k = 0; k < n; ++k) {
+            int y = cells[k] / 5;
+            int x = cells[k] % 5;
+            used[y][x] = true;
+            boolean done = allWords(its[k], y, x, used, foundwords, d);
+            used[y][x] = false;
+            if (!done) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+  /**
+   * Find the ways to extend a prefix by a neighbouring cell, most
+   * productive first, for the budgeted searches.  A way is rated by the
+   * number of words that start with the extended prefix (the Trie keeps
+   * that count in each node), so a search cut short has spent its time
+   * where most of the words are.  Ways that lead to no words are left
+   * out; ties keep the usual neighbour order.
+   * @param board The letters
+   * @param si    The prefix
+   * @param r     The row of its last cell
+   * @param c     The column of its last cell
+   * @param used  The cells already in the prefix
+   * @param cells Where to put the cells (row * 5 + column), 8 long
+   * @param its   Where to put the extended prefixes, 8 long
+   * @return      The number of ways
+   */
+    static int bestNeighbours(char[][] board, Trie.SearchIterator si,
+                              int r, int c, boolean[][] used,
+                              int[] cells, Trie.SearchIterator[] its)
+    {
+        int[] words = new int[8];
+        int n = 0;
+        for (int y = r - 1; y <= r + 1; ++y) {
+            for (int x = c - 1; x <= c + 1; ++x) {
+                if (x < 0 || y < 0 || y >= 5 || x >= 5 || used[y][x]) {
+                    continue;
+                }
+                Trie.SearchIterator it = new Trie.SearchIterator(si);
+                it.next(board[y][x]);
+                if (board[y][x] == 'Q') {
+                    it.next('U');
+                }
+                int w = it.wordCount();
+                if (w == 0) {
+                    continue;
+                }
+                //insertion sort, most words first
+                int k = n++;
+                for (; k > 0 && words[k - 1] < w; --k) {
+                    words[k] = words[k - 1];
+                    cells[k] = cells[k - 1];
+                    its[k] = its[k - 1];
+                }
+                words[k] = w;
+                cells[k] = y*5 + x;
+                its[k] = it;
+            }
+        }
+        return n;
+    }
+
+  /**
+   * A version of allWords() that prunes the search with a BoardFilter.
+   * Before searching from a prefix, the filter checks that the prefix is
+   * a word or that some letter that can follow it in the dictionary can
+   * also follow its last letter on this board.  The result is the same as
+   * allWords(), and f's counters record how much was pruned.
+   * @param f The filter for this board (see BoardFilter)
+   * @return The words on the board
+   */
+    public Queue<String> allWords(BoardFilter f) {
+        long time = System.nanoTime();
+        long bytes = Metrics.allocated();
+        boolean[][]used = new boolean[5][5];
+        Trie foundwords = new Trie();
+
+        for (int r = 0; r < 5; r++) {
+            for (int c = 0; c < 5; c++) {
+                char ch = board[r][c];
+                char last = ch;
+                Trie.SearchIterator it = englishWords.beginSearch();
+                it.next(ch);
+                if (ch == 'Q') {
+                    it.next('U');
+                    last = 'U';
+                }
+                used[r][c] = true;
+                f.use(ch);
+                if (f.admits(it, last)) {
+                    allWords(it, r, c, used, foundwords, f);
+                }
+                f.unuse(ch);
+                used[r][c] = false;
+            }
+        }
+        Queue<String> words = foundwords.enqueue();
+        FILTERED.stop(time, bytes);
+        return words;
+    }
+
+  /** The recursive version of allWords(BoardFilter).
+   * The caller has already checked si with f.admits().
+   */
+    private void allWords(Trie.SearchIterator si, int r, int c,
+                          boolean[][]used, Trie foundwords, BoardFilter f)
+    {
+        if (si.inSet()) {
+            foundwords.insertForeignIt(si);
+        }
+        for (int y = r - 1; y <= r + 1; ++y) {
+            for (int x = c - 1; x <= c + 1; ++x) {
+                if (x < 0 || y < 0 || y >= used.length 
+                          || x >= used[0].length || used[y][x]) 
+                {
+                    continue;
+                }
+                char ch = board[y][x];
+                char last = ch;
+                Trie.SearchIterator it = new Trie.SearchIterator(si);
+                it.next(ch);
+                if (ch == 'Q') {
+                    it.next('U');
+                    last = 'U';
+                }
+                used[y][x] = true;
+                f.use(ch);
+                if (f.admits(it, last)) {
+                    allWords(it, y, x, used, foundwords, f);
+                }
+                f.unuse(ch);
+                used[y][x] = false;
+            }
+        }
+    }
+
+  /**
+   * Find every word on the board along with one path that traces it.
+   * Unlike allWords(), this never builds a String or copies an iterator:
+   * it walks the dictionary with a single SearchIterator (next() on the
+   * way down, up() on the way back), keeps the current path in an array,
+   * and records each word by its dictionary id the first time it is seen.
+   * @return The words (in the order they were found) and their paths
+   */
+    public WordPaths allPaths() {
+        return allPaths(new SolverContext(englishWords));
+    }
+
+  /**
+   * allPaths() with its scratch space (and the result) borrowed from a
+   * SolverContext, so that solving one board after another allocates
+   * nothing once the context has grown to fit.
+   * @param ctx The context.  The result is ctx's, and is only good until
+   *            ctx is used again.
+   * @return The words (in the order they were found) and their paths
+   */
+    public WordPaths allPaths(SolverContext ctx) {
+        long time = System.nanoTime();
+        long bytes = Metrics.allocated();
+        WordPaths found = ctx.begin(englishWords);
+        long[] seen = ctx.seen;
+        int[] path = ctx.path;
+        boolean[][] used = ctx.used;
+        Trie.SearchIterator it = ctx.it;
+
+        for (int r = 0; r < 5; r++) {
+            for (int c = 0; c < 5; c++) {
+                char ch = board[r][c];
+
+                if (descend(it, ch)) {
+                    used[r][c] = true;
+                    path[0] = r*5 + c;
+                    allPaths(it, r, c, 1, used, path, seen, found);
+                    used[r][c] = false;
+                    ascend(it, ch);
+                }
+            }
+        }
+        ALL_PATHS.stop(time, bytes);
+        return found;
+    }
+
+  /** The recursive version of allPaths().
+   * @param it      The position in the dictionary.  This is back where it
+   *                started when this returns.
+   * @param r       The row of the current cell
+   * @param c       The column of the current cell
+   * @param len     The number of cells in path
+   * @param used    Which cells are on the current path
+   * @param path    The cells on the current path (row * 5 + column)
+   * @param seen    A bitset of the ids already found
+   * @param found   Where to record new words
+   */
+    private void allPaths(Trie.SearchIterator it, int r, int c, int len,
+                          boolean[][] used, int[] path, long[] seen,
+                          WordPaths found)
+    {
+        if (it.inSet()) {
+            int id = it.wordId();
+            if ((seen[id >>> 6] & (1L << id)) == 0) {
+                seen[id >>> 6] |= 1L << id;
+                found.add(id, path, len);
+            }
+        }
+        for (int y = r - 1; y <= r + 1; ++y) {
+            for (int x = c - 1; x <= c + 1; ++x) {
+                if (x < 0 || y < 0 || y >= 5 || x >= 5 || used[y][x]) {
+                    continue;
+                }
+                char ch = board[y][x];
+
+                if (descend(it, ch)) {
+                    used[y][x] = true;
+                    path[len] = y*5 + x;
+                    allPaths(it, y, x, len + 1, used, path, seen, found);
+                    used[y][x] = false;
+                    ascend(it, ch);
+                }
+            }
+        }
+    }
+
+  /**
+   * Count the points on the board without building any Strings.
+   * This is the same as countPoints(allWords()), but words are deduped
+   * by their dictionary id and scored by their length straight from the
+   * dictionary as the search finds them, with the same allocation free
+   * walk as allPaths().
+   * @return The points
+   */
+    public int score() {
+        return score(new long[(englishWords.idCount() + 63) / 64]);
+    }
+
+  /**
+   * Count the points on the board, as score() does, and record which
+   * words were found.
+   * @param seen    A bitset of word ids, with room for idCount() bits.
+   *                Words already in it aren't scored, and the words found
+   *                are added to it, so a caller can see which they were
+   *                (and clear it to reuse it for the next board).
+   * @return The points
+   */
+    public int score(long[] seen) {
+        return score(englishWords.beginSearch(), new char[25], seen, null);
+    }
+
+  /**
+   * score() with its scratch space borrowed from a SolverContext, so
+   * it allocates nothing.  Like any solve with ctx, this replaces ctx's
+   * last result:  ctx.result() is empty afterwards.  The ids it scores
+   * are recorded, and only those are cleared from ctx's bitset.
+   * @param ctx The context
+   * @return The points
+   */
+    public int score(SolverContext ctx) {
+        ctx.begin(englishWords);
+        int pts = score(ctx.it, ctx.cells, ctx.seen, ctx);
+        ctx.clearScored();
+        return pts;
+    }
+
+  /**
+   * The body of score(long[]).
+   * @param it      A search at the root of the dictionary
+   * @param cells   Scratch space for the letters, 25 long
+   * @param seen    A bitset of word ids, as for score(long[])
+   * @param ctx     Where to record the ids scored, or null
+   * @return The points
+   */
+    private int score(Trie.SearchIterator it, char[] cells, long[] seen,
+                      SolverContext ctx)
+    {
+        long time = System.nanoTime();
+        long bytes = Metrics.allocated();
+        int pts = 0;
+
+        for (int i = 0; i < 25; ++i) {
+            cells[i] = board[i / 5][i % 5];
+        }
+        for (int i = 0; i < 25; ++i) {
+            if (descend(it, cells[i])) {
+                pts += score(it, i, 1 << i, cells, seen, ctx);
+                ascend(it, cells[i]);
+            }
+        }
+        SCORE.stop(time, bytes);
+        return pts;
+    }
+
+  /** The recursive version of score().
+   * This is the inner loop of board rating, so the board is flattened
+   * to cells [0, 25) and the used cells are a bitmask.
+   * @param it      The position in the dictionary.  This is back where it
+   *                started when this returns.
+   * @param cell    The current cell (row * 5 + column)
+   * @param used    Mask of the cells on the current path
+   * @param cells   The letters on the board, by cell
+   * @param seen    A bitset of the ids already scored
+   * @param ctx     Where to record the ids scored, or null
+   * @return        The points for new words from here
+   */
+    private static int score(Trie.SearchIterator it, int cell, int used,
+                             char[] cells, long[] seen, SolverContext ctx)
+    {
+        int pts = 0;
+        if (it.inSet()) {
+            int id = it.wordId();
+            if ((seen[id >>> 6] & (1L << id)) == 0) {
+                seen[id >>> 6] |= 1L << id;
+                pts += points(it.depth());
+                if (ctx != null) {
+                    ctx.scored(id);
+                }
+            }
+        }
+        for (int next : NEIGHBOURS[cell]) {
+            if ((used & (1 << next)) == 0 && descend(it, cells[next])) {
+                pts += score(it, next, used | (1 << next), cells, seen,
+                             ctx);
+                ascend(it, cells[next]);
+            }
+        }
+        return pts;
+    }
+
+  /**
+   * A version of allWords() that uses a HashTable as the dictionary.
+   * The table must store prefixes (see HashTable.loadDictionary()), which
+   * lets the search abandon dead paths just like the Trie search does.
+   * The current prefix is kept in a buffer along with its hash, so each
+   * step is one table lookup.
+   * @param dict The dictionary
+   * @return The words on the board, in no particular order
+   */
+    public Queue<String> allWords(HashTable dict) {
+        long time = System.nanoTime();
+        long bytes = Metrics.allocated();
+        HashTable foundwords = new HashTable();
+        char[] buf = new char[52];    //25 cells, and each could be Qu
+        char[] cells = new char[25];
+
+        for (int i = 0; i < 25; ++i) {
+            cells[i] = board[i / 5][i % 5];
+        }
+        for (int i = 0; i < 25; ++i) {
+            allWords(dict, i, 1 << i, cells, buf, 0, 0, foundwords);
+        }
+        Queue<String> words = foundwords.enqueue();
+        HASH_TABLE.stop(time, bytes);
+        return words;
+    }
+
+  /** The recursive version of allWords(HashTable).
+   * @param dict    The dictionary
+   * @param cell    The cell to append (row * 5 + column)
+   * @param used    Mask of the cells on the path, including cell
+   * @param cells   The letters on the board, by cell
+   * @param buf     The prefix so far, buf[0, len)
+   * @param len     The length of the prefix so far
+   * @param h       The hash of the prefix so far
+   * @param foundwords The set of words found
+   */
+    private static void allWords(HashTable dict, int cell, int used,
+                                 char[] cells, char[] buf, int len, int h,
+                                 HashTable foundwords)
+    {
+        char ch = cells[cell];
+        buf[len++] = ch;
+        h = HashTable.hash(h, ch);
+        if (ch == 'Q') {
+            buf[len++] = 'U';
+            h = HashTable.hash(h, 'U');
+        }
+        int f = dict.lookup(buf, len, h);
+        if ((f & HashTable.WORD) != 0) {
+            foundwords.insert(dict.get(buf, len, h));
+        }
+        if ((f & HashTable.PREFIX) == 0) {
+            return;
+        }
+        for (int next : NEIGHBOURS[cell]) {
+            if ((used & (1 << next)) == 0) {
+                allWords(dict, next, used | (1 << next), cells, buf, len, h,
+                         foundwords);
+            }
+        }
+    }
+
+  /**
+   * A version of allWords() that uses a LoudsTrie as the dictionary.
+   * A LoudsTrie doesn't store strings, so the prefix is kept in a buffer
+   * and a word is only turned into a string the first time it is found
+   * (words are deduped by their rank in the dictionary).
+   * @param dict The dictionary
+   * @return The words on the board (in uppercase), in the order found
+   */
+    public Queue<String> allWords(LoudsTrie dict) {
+        long time = System.nanoTime();
+        long bytes = Metrics.allocated();
+        Queue<String> foundwords = new ArrayDeque<String>();
+        long[] seen = new long[(dict.size() + 63) / 64];
+        char[] buf = new char[52];
+        char[] cells = new char[25];
+
+        for (int i = 0; i < 25; ++i) {
+            cells[i] = board[i / 5][i % 5];
+        }
+        for (int i = 0; i < 25; ++i) {
+            allWords(dict, dict.root(), i, 1 << i, cells, buf, 0, seen,
+                     foundwords);
+        }
+        LOUDS.stop(time, bytes);
+        return foundwords;
+    }
+
+  /** The recursive version of allWords(LoudsTrie).
+   * @param dict    The dictionary
+   * @param v       The dictionary node of the prefix so far
+   * @param cell    The cell to append (row * 5 + column)
+   * @param used    Mask of the cells on the path, including cell
+   * @param cells   The letters on the board, by cell
+   * @param buf     The prefix so far, buf[0, len)
+   * @param len     The length of the prefix so far
+   * @param seen    A bitset of the ranks already found
+   * @param foundwords The words found
+   */
+    private static void allWords(LoudsTrie dict, int v, int cell, int used,
+                                 char[] cells, char[] buf, int len,
+                                 long[] seen, Queue<String> foundwords)
+    {
+        char ch = cells[cell];
+        buf[len++] = ch;
+        v = dict.child(v, ch);
+        if (ch == 'Q' && v >= 0) {
+            buf[len++] = 'U';
+            v = dict.child(v, 'U');
+        }
+        if (v < 0) {
+            return;
+        }
+        if (dict.isWord(v)) {
+            int id = dict.rank(v);
+            if ((seen[id >>> 6] & (1L << id)) == 0) {
+                seen[id >>> 6] |= 1L << id;
+                foundwords.offer(new String(buf, 0, len));
+            }
+        }
+        for (int next : NEIGHBOURS[cell]) {
+            if ((used & (1 << next)) == 0) {
+                allWords(dict, v, next, used | (1 << next), cells, buf, len,
+                         seen, foundwords);
+            }
+        }
+    }
+
+  /**
+   * A version of allWords() that uses a PackedTrie as the dictionary.
+   * @param dict The dictionary
+   * @return The words on the board, in the order found
+   */
+    public Queue<String> allWords(PackedTrie dict) {
+        long time = System.nanoTime();
+        long bytes = Metrics.allocated();
+        Queue<String> foundwords = new ArrayDeque<String>();
+        long[] seen = new long[(dict.idCount() + 63) / 64];
+        char[] cells = new char[25];
+
+        for (int i = 0; i < 25; ++i) {
+            cells[i] = board[i / 5][i % 5];
+        }
+        for (int i = 0; i < 25; ++i) {
+            allWords(dict, dict.root(), i, 1 << i, cells, seen, foundwords);
+        }
+        PACKED.stop(time, bytes);
+        return foundwords;
+    }
+
+  /** The recursive version of allWords(PackedTrie).
+   * @param dict    The dictionary
+   * @param v       The dictionary node of the prefix so far
+   * @param cell    The cell to append (row * 5 + column)
+   * @param used    Mask of the cells on the path, including cell
+   * @param cells   The letters on the board, by cell
+   * @param seen    A bitset of the ids already found
+   * @param foundwords The words found
+   */
+    private static void allWords(PackedTrie dict, int v, int cell, int used,
+                                 char[] cells, long[] seen,
+                                 Queue<String> foundwords)
+    {
+        char ch = cells[cell];
+        v = dict.child(v, ch);
+        if (ch == 'Q' && v >= 0) {
+            v = dict.child(v, 'U');
+        }
+        if (v < 0) {
+            return;
+        }
+        int id = dict.wordId(v);
+        if (id >= 0 && (seen[id >>> 6] & (1L << id)) == 0) {
+            seen[id >>> 6] |= 1L << id;
+            foundwords.offer(dict.word(id));
+        }
+        for (int next : NEIGHBOURS[cell]) {
+            if ((used & (1 << next)) == 0) {
+                allWords(dict, v, next, used | (1 << next), cells, seen,
+                         foundwords);
+            }
+        }
+    }
+
+  /** Move a SearchIterator down by the letter on a cell, unless that
+   * would fall off the Trie.  A 'Q' cell moves down by "QU".
+   * @param it The iterator
+   * @param ch The letter on the cell
+   * @return True if it moved; if not, it is unchanged
+   */
+    private static boolean descend(Trie.SearchIterator it, char ch) {
+        if (!it.tryNext(ch)) {
+            return false;
+        }
+        if (ch == 'Q' && !it.tryNext('U')) {
+            it.up();
+            return false;
+        }
+        return true;
+    }
+
+  /** Undo a successful descend(it, ch).
+   * @param it The iterator
+   * @param ch The letter on the cell
+   */
+    private static void ascend(Trie.SearchIterator it, char ch) {
+        it.up();
+        if (ch == 'Q') {
+            it.up();
+        }
+    }
 }
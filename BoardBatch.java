@@ -0,0 +1,262 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Queue;
+import java.util.ArrayDeque;
+
+/** Solve many boards with a single walk of the dictionary.
+ *
+ * Board.allWords() walks the board and follows along in the dictionary,
+ * so solving N boards walks the top of the Trie N times.  This does it
+ * the other way around:  it walks the Trie once, depth first, and for
+ * every board in the batch carries the set of ways the current prefix
+ * can be traced on that board.  A Trie node is only visited if at least
+ * one board can still trace it, and it is visited once for the whole
+ * batch, so the hot nodes near the root stay in cache.
+ *
+ * A way to trace a prefix is packed into an int:  bits [0, 25) are the
+ * cells used so far and bits [25, 30) are the cell the prefix ends on.
+ * Cell 25 is a virtual cell adjacent to every real one, which is where
+ * every board starts.  Extending a prefix by a letter is then just bit
+ * twiddling:  ADJACENT[cell] &amp; cellsWith[letter] &amp; ~used.
+ *
+ * The results are identical (including order) to calling allWords() on
+ * each board.
+ */
+public class BoardBatch {
+    /** Mask of the 25 cells of a board */
+    private static final int CELLS = (1 << 25) - 1;
+    /** The virtual starting cell */
+    private static final int START = 25;
+    /** ADJACENT[i] is the mask of cells adjacent to cell i */
+    private static final int[] ADJACENT = new int[26];
+
+    static {
+        for (int r = 0; r < 5; ++r) {
+            for (int c = 0; c < 5; ++c) {
+                int mask = 0;
+                for (int y = r - 1; y <= r + 1; ++y) {
+                    for (int x = c - 1; x <= c + 1; ++x) {
+                        if (x < 0 || y < 0 || y >= 5 || x >= 5
+                                  || (y == r && x == c))
+                        {
+                            continue;
+                        }
+                        mask |= 1 << (y*5 + x);
+                    }
+                }
+                ADJACENT[r*5 + c] = mask;
+            }
+        }
+        ADJACENT[START] = CELLS;
+    }
+
+    /** The dictionary */
+    private Trie englishWords;
+    /** The dictionary's letters */
+    private Alphabet alphabet;
+    /** cellsWith[b][i] is the mask of cells of board b with the letter
+     * whose code is i (see Alphabet.index())
+     */
+    private int[][] cellsWith;
+    /** The words found on each board */
+    private List<Queue<String>> found;
+
+    /** The boards that can trace the prefix at each depth.  The ways
+     * board active[d][k] traces it are states[d][offset[d][k]] up to
+     * states[d][offset[d][k + 1]].
+     */
+    private int[][] active;
+    /** Number of entries of active[d] in use */
+    private int[] numActive;
+    /** Start of each active board's states, see active */
+    private int[][] offset;
+    /** The packed (cell, used) states, see active */
+    private int[][] states;
+
+    /** Construct a batch.
+     * @param dictionary The dictionary, shared by all of the boards
+     * @param boards The boards to solve
+     */
+    public BoardBatch(Trie dictionary, List<Board> boards) {
+        englishWords = dictionary;
+        alphabet = dictionary.alphabet();
+        cellsWith = new int[boards.size()][alphabet.size()];
+        for (int b = 0; b < boards.size(); ++b) {
+            Board board = boards.get(b);
+            for (int r = 0; r < 5; ++r) {
+                for (int c = 0; c < 5; ++c) {
+                    int i = alphabet.index(board.letterAt(r, c));
+                    if (i >= 0) {   //else no word can use the cell
+                        cellsWith[b][i] |= 1 << (r*5 + c);
+                    }
+                }
+            }
+        }
+    }
+
+    /** Find all of the words on every board in the batch.
+     * @return One queue per board, in the same order as the boards, each
+     *         the same as Board.allWords() for that board.
+     */
+    public List<Queue<String>> allWords() {
+        int n = cellsWith.length;
+        found = new ArrayList<Queue<String>>(n);
+        for (int b = 0; b < n; ++b) {
+            found.add(new ArrayDeque<String>());
+        }
+        active = new int[0][];
+        numActive = new int[0];
+        offset = new int[0][];
+        states = new int[0][];
+        ensureDepth(0);
+
+        //everyone starts on the virtual cell, with nothing used
+        for (int b = 0; b < n; ++b) {
+            active[0][b] = b;
+            offset[0][b] = b;
+            states[0][b] = START << 25;
+        }
+        numActive[0] = n;
+        offset[0][n] = n;
+
+        search(englishWords.beginSearch(), 0);
+        List<Queue<String>> ret = found;
+        found = null;
+        return ret;
+    }
+
+    /** Visit the subtree of the Trie under it.
+     * @param it The position in the Trie.  This is moved around, but is
+     *           back where it started when this returns.
+     * @param d The depth of it, i.e. which state arrays describe it
+     */
+    private void search(Trie.SearchIterator it, int d) {
+        if (d > 0 && it.inSet()) {
+            String s = it.toString();
+            for (int k = 0; k < numActive[d]; ++k) {
+                found.get(active[d][k]).offer(s);
+            }
+        }
+        for (int i = 0; i < alphabet.size(); ++i) {
+            char ch = alphabet.letter(i);
+
+            if (!it.hasChild(ch)) {
+                continue;
+            }
+            if (!extend(d, i)) {
+                continue;
+            }
+            it.next(ch);
+            if (ch == 'Q') {
+                //a Q on the board is always followed by a U
+                if (alphabet.index('U') >= 0 && it.hasChild('U')) {
+                    it.next('U');
+                    search(it, d + 1);
+                    it.up();
+                }
+            }
+            else {
+                search(it, d + 1);
+            }
+            it.up();
+        }
+    }
+
+    /** Extend every active board's states at depth d by a letter,
+     * filling in the arrays for depth d + 1.
+     * @param d The current depth
+     * @param letter The code of the letter to append
+     * @return True if any board can trace the extended prefix
+     */
+    private boolean extend(int d, int letter) {
+        ensureDepth(d + 1);
+        int[] act = active[d];
+        int[] off = offset[d];
+        int[] st = states[d];
+        int[] nact = active[d + 1];
+        int[] noff = offset[d + 1];
+        int[] nst = states[d + 1];
+        int na = 0;
+        int ns = 0;
+
+        for (int k = 0; k < numActive[d]; ++k) {
+            int b = act[k];
+            int cells = cellsWith[b][letter];
+
+            if (cells == 0) {
+                continue;
+            }
+            int first = ns;
+            for (int j = off[k]; j < off[k + 1]; ++j) {
+                int used = st[j] & CELLS;
+                int next = ADJACENT[st[j] >>> 25] & cells & ~used;
+
+                while (next != 0) {
+                    int bit = next & -next;
+                    next ^= bit;
+                    if (ns == nst.length) {
+                        nst = states[d + 1] = Arrays.copyOf(nst, ns * 2);
+                    }
+                    nst[ns++] = (Integer.numberOfTrailingZeros(bit) << 25)
+                                | used | bit;
+                }
+            }
+            if (ns != first) {
+                nact[na] = b;
+                noff[na] = first;
+                ++na;
+            }
+        }
+        noff[na] = ns;
+        numActive[d + 1] = na;
+        return na != 0;
+    }
+
+    /** Make sure the state arrays go down to depth d.
+     * @param d The depth
+     */
+    private void ensureDepth(int d) {
+        if (d < active.length) {
+            return;
+        }
+        int n = cellsWith.length;
+        int len = d + 1;
+        active = Arrays.copyOf(active, len);
+        offset = Arrays.copyOf(offset, len);
+        states = Arrays.copyOf(states, len);
+        numActive = Arrays.copyOf(numActive, len);
+        active[d] = new int[n];
+        offset[d] = new int[n + 1];
+        states[d] = new int[Math.max(n, 16)];
+    }
+
+    /** Solve a range of seeds in batches and print the points for each.
+     * Usage:  java BoardBatch firstSeed count [batchSize]
+     */
+    public static void main(String[] args) {
+        long time = System.currentTimeMillis();
+        long first = Long.parseLong(args[0]);
+        int count = Integer.parseInt(args[1]);
+        int batchSize = (args.length > 2) ? Integer.parseInt(args[2]) : 1000;
+        Trie dictionary = Board.loadDictionary("american-english");
+        long total = 0;
+
+        for (int i = 0; i < count; i += batchSize) {
+            List<Board> boards = new ArrayList<Board>();
+            for (int j = i; j < count && j < i + batchSize; ++j) {
+                boards.add(new Board(first + j, dictionary));
+            }
+            List<Queue<String>> words =
+                    new BoardBatch(dictionary, boards).allWords();
+            for (int j = 0; j < words.size(); ++j) {
+                int pts = Board.countPoints(words.get(j));
+                System.out.println((first + i + j) + " " + pts);
+                total += pts;
+            }
+        }
+        System.out.println(total + " points");
+        time = System.currentTimeMillis() - time;
+        System.out.println((time / 1000.0) + " seconds");
+    }
+}
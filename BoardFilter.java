@@ -0,0 +1,188 @@
+/** A cheap per-board summary used to prune the dictionary search.
+ *
+ * Most branches of the dictionary can never be traced on a given board:
+ * they use a letter that isn't there, or need two letters next to each
+ * other that are never adjacent.  A BoardFilter records, for each letter,
+ * which letters can immediately follow it on this board (the adjacency
+ * bigrams).  Board.allWords(BoardFilter) uses it as a one step lookahead:
+ * after descending to a prefix, if the prefix isn't a word and none of
+ * its children in the Trie can follow its last letter, the prefix is
+ * dropped without searching any of its neighbours.
+ *
+ * A Q on the board stands for "Qu", so it contributes the bigrams
+ * (x, Q), (Q, U) and (U, y) for each pair of neighbours x and y.
+ *
+ * The filter also tracks which letters are left on the cells the search
+ * hasn't used yet (see use() and unuse()).  Together with the subtree
+ * summaries kept in the Trie this drops a prefix when some letter that
+ * every word below it needs is no longer available, or when even the
+ * shortest word below it is longer than the unused cells can spell.
+ *
+ * Building a filter looks at each of the 25 cells and their neighbours,
+ * which takes a few microseconds.
+ */
+public class BoardFilter {
+    /** Mask of the letters on the board (a Q also counts as a U) */
+    private int letters;
+    /** follow[i] is the mask of letters that can follow letter 'A'+i */
+    private int[] follow;
+    /** count[i] is the number of unused cells giving letter 'A'+i */
+    private int[] count;
+    /** Mask of the letters on unused cells */
+    private int available;
+    /** The most letters the unused cells can spell (a Qu cell is two) */
+    private int capacity;
+    /** Whether this filter lets everything through */
+    private boolean permissive;
+
+    /** The number of prefixes searched with this filter */
+    public long visited;
+    /** The number of prefixes the filter dropped */
+    public long pruned;
+
+    /** Build the filter for a board.
+     * @param b The board
+     */
+    public BoardFilter(Board b) {
+        follow = new int[26];
+        count = new int[26];
+        for (int r = 0; r < 5; ++r) {
+            for (int c = 0; c < 5; ++c) {
+                char ch = b.letterAt(r, c);
+                //the letter that the neighbours follow
+                int last = ch - 'A';
+
+                letters |= 1 << last;
+                ++count[last];
+                ++capacity;
+                if (ch == 'Q') {
+                    last = 'U' - 'A';
+                    letters |= 1 << last;
+                    ++count[last];
+                    ++capacity;
+                    follow['Q' - 'A'] |= 1 << last;
+                }
+                for (int y = r - 1; y <= r + 1; ++y) {
+                    for (int x = c - 1; x <= c + 1; ++x) {
+                        if (x < 0 || y < 0 || y >= 5 || x >= 5
+                                  || (y == r && x == c))
+                        {
+                            continue;
+                        }
+                        follow[last] |= 1 << (b.letterAt(y, x) - 'A');
+                    }
+                }
+            }
+        }
+        available = letters;
+    }
+
+    /** Build a filter that lets everything through.  Searching with this
+     * visits the same prefixes as Board.allWords(), which makes it a
+     * baseline for the counters.
+     */
+    public BoardFilter() {
+        letters = -1;
+        follow = new int[26];
+        java.util.Arrays.fill(follow, -1);
+        count = new int[26];
+        permissive = true;
+    }
+
+    /** Record that the search has used a cell.
+     * @param c The letter on the cell
+     */
+    public void use(char c) {
+        int i = c - 'A';
+        if (--count[i] == 0) {
+            available &= ~(1 << i);
+        }
+        --capacity;
+        if (c == 'Q') {
+            use('U');
+        }
+    }
+
+    /** Record that the search has given a cell back (undo use(c)).
+     * @param c The letter on the cell
+     */
+    public void unuse(char c) {
+        int i = c - 'A';
+        if (count[i]++ == 0) {
+            available |= 1 << i;
+        }
+        ++capacity;
+        if (c == 'Q') {
+            unuse('U');
+        }
+    }
+
+    /** Check if a letter is on the board.
+     * @param c The letter
+     * @return True if it is (U is on the board if Q is)
+     */
+    public boolean hasLetter(char c) {
+        return (letters & (1 << (c - 'A'))) != 0;
+    }
+
+    /** Get the letters that can follow a letter on this board.
+     * @param c The letter
+     * @return A mask with bit i set iff 'A'+i can follow c
+     */
+    public int follow(char c) {
+        return follow[c - 'A'];
+    }
+
+    /** Decide whether a prefix is worth searching from.  The cell that
+     * the prefix ends on should already have been passed to use().
+     * @param it The position in the dictionary after appending last
+     * @param last The last letter appended ('U' for a Qu cell)
+     * @return False if no word can be traced through this prefix
+     */
+    public boolean admits(Trie.SearchIterator it, char last) {
+        boolean ok = it.reachable();
+        if (ok && !permissive && !it.inSet()) {
+            ok = (it.childMask() & follow[last - 'A']) != 0
+                 && (it.neededMask() & ~available) == 0
+                 && it.shortestRemaining() <= capacity;
+        }
+        if (ok) {
+            ++visited;
+        }
+        else {
+            ++pruned;
+        }
+        return ok;
+    }
+
+    /** Report how much the filter prunes over a range of seeds.
+     * Usage:  java BoardFilter [firstSeed [count]]
+     */
+    public static void main(String[] args) {
+        long first = (args.length > 0) ? Long.parseLong(args[0]) : 0;
+        int count = (args.length > 1) ? Integer.parseInt(args[1]) : 100;
+        Trie dictionary = Board.loadDictionary("american-english");
+        long plain = 0;
+        long filtered = 0;
+        long buildTime = 0;
+
+        for (long seed = first; seed < first + count; ++seed) {
+            Board b = new Board(seed, dictionary);
+            BoardFilter all = new BoardFilter();
+            b.allWords(all);
+            plain += all.visited;
+
+            long t = System.nanoTime();
+            BoardFilter f = new BoardFilter(b);
+            buildTime += System.nanoTime() - t;
+            b.allWords(f);
+            filtered += f.visited;
+        }
+        System.out.println("prefixes searched without filter: " + plain);
+        System.out.println("prefixes searched with filter:    " + filtered);
+        System.out.println("pruning ratio: " +
+                           (1.0 - (double) filtered / plain));
+        System.out.println("filter build: " +
+                           (buildTime / 1000.0 / count) + " us per board");
+    }
+}
@@ -0,0 +1,221 @@
+import java.util.Queue;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/** A prefix Trie that many threads can insert into at once.
+ * Like Trie, this only works on strings "[A-Z]*" (case is folded on
+ * insertion) and does minimal error checking.
+ *
+ * Nothing here takes a lock.  A child slot is filled by a compare and
+ * swap from null to a new node; the thread that loses the race just
+ * carries on down the node that won.  A node is marked as a string by a
+ * compare and swap of its flag, which also tells exactly one inserter
+ * that the string is new.  Inserts are lock-free (some thread always
+ * makes progress) and lookups are wait-free:  they only read, and take
+ * at most one step per character.
+ *
+ * Nodes are never removed, so a reader can never see a node disappear
+ * under it.  enqueue() while inserts are running sees every string that
+ * was fully inserted before it started, and maybe some of the others.
+ */
+public class ConcurrentTrie {
+
+    /** A node.  Children are published through an atomic array. */
+    private static class Node {
+        /** The child node array */
+        final AtomicReferenceArray<Node> children;
+
+        /** 1 if this node represents a string in the Trie, else 0 */
+        volatile int value_here;
+
+        /** The string at this node, as it was inserted.  Set (once)
+         * before value_here, so a reader that sees value_here == 1 also
+         * sees this.
+         */
+        volatile String str;
+
+        /** Updater for value_here */
+        static final AtomicIntegerFieldUpdater<Node> VALUE =
+                AtomicIntegerFieldUpdater.newUpdater(Node.class,
+                                                     "value_here");
+
+        /** Updater for str */
+        static final AtomicReferenceFieldUpdater<Node, String> STR =
+                AtomicReferenceFieldUpdater.newUpdater(Node.class,
+                                                       String.class, "str");
+
+        /** Create a node with no children */
+        Node() {
+            children = new AtomicReferenceArray<Node>(26);
+        }
+
+        /** Get the index corresponding to a character into the child
+         *  array
+         *  @param c The character key
+         *  @return i The index into the array
+         */
+        static int index(char c) {
+            return c - 'A';
+        }
+
+        /** Get the child node for a character, creating it if necessary.
+         * @param c The character key
+         * @return The child (whichever node won the race to create it)
+         */
+        Node get(char c) {
+            int i = index(c);
+            Node n = children.get(i);
+
+            if (n == null) {
+                Node created = new Node();
+                if (children.compareAndSet(i, null, created)) {
+                    return created;
+                }
+                n = children.get(i);
+            }
+            return n;
+        }
+    }
+
+    /** The root of the Trie */
+    private final Node root;
+
+    /** The number of strings in this Trie */
+    private final AtomicInteger m_size;
+
+    /** Create a ConcurrentTrie */
+    public ConcurrentTrie() {
+        root = new Node();
+        m_size = new AtomicInteger();
+    }
+
+    /** Insert a string, converting it to uppercase.  Safe to call from
+     * any number of threads at once.
+     * @param s The string to insert (enqueue() returns it as given)
+     * @return True if this call inserted s, false if it was already there
+     */
+    public boolean insertCase(String s) {
+        Node n = root;
+        for (int i = 0; i < s.length(); ++i) {
+            n = n.get(Character.toUpperCase(s.charAt(i)));
+        }
+        Node.STR.compareAndSet(n, null, s);
+        if (Node.VALUE.compareAndSet(n, 0, 1)) {
+            m_size.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /** Insert the string at a SearchIterator into another Trie.
+     * The string is stored as the iterator's toString(), i.e. the cached
+     * string if there is one.
+     * @param it An iterator into a Trie (e.g. the dictionary)
+     * @return True if this call inserted the string
+     */
+    public boolean insertForeignIt(Trie.SearchIterator it) {
+        return insertCase(it.toString());
+    }
+
+    /** Find the node for a string.
+     * @param s The string (uppercase)
+     * @return The node, or null if s is not a prefix in the Trie
+     */
+    private Node node(String s) {
+        Node n = root;
+        for (int i = 0; i < s.length() && n != null; ++i) {
+            n = n.children.get(Node.index(s.charAt(i)));
+        }
+        return n;
+    }
+
+    /** Determine if a string is in this Trie.  Wait-free.
+     * @param s The string to search for (uppercase)
+     * @return SearchResult.{NOPREFIX, FOUND, NOTFOUND} for the string, as
+     *         for Trie.find()
+     */
+    public Trie.SearchResult find(String s) {
+        Node n = node(s);
+        if (n == null) {
+            return Trie.SearchResult.NOPREFIX;
+        }
+        return (n.value_here != 0) ? Trie.SearchResult.FOUND
+                                   : Trie.SearchResult.NOTFOUND;
+    }
+
+    /** Determine if a string is in this Trie.  Wait-free.
+     * @param s The string to search for (uppercase)
+     * @return True if s is in the Trie
+     */
+    public boolean get(String s) {
+        Node n = node(s);
+        return n != null && n.value_here != 0;
+    }
+
+    /** Measure the heap this ConcurrentTrie uses (see Footprint).  Only
+     * call this while nothing is inserting.
+     * @return The footprint
+     */
+    public Footprint footprint() {
+        Footprint f = new Footprint("ConcurrentTrie");
+        ArrayDeque<Node> stack = new ArrayDeque<Node>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Node n = stack.pop();
+            ++f.nodes;
+            //children, value_here, str
+            f.add("nodes", Footprint.object(Footprint.REF + 4
+                                            + Footprint.REF));
+            //the AtomicReferenceArray and the array inside it
+            f.add("child arrays", Footprint.object(Footprint.REF)
+                  + Footprint.array(Footprint.REF, n.children.length()));
+            f.slots += n.children.length();
+            if (n.value_here != 0) {
+                ++f.words;
+                f.addString(n.str);
+            }
+            for (int i = 0; i < n.children.length(); ++i) {
+                Node c = n.children.get(i);
+                if (c != null) {
+                    ++f.filled;
+                    stack.push(c);
+                }
+            }
+        }
+        return f;
+    }
+
+    /** Helper method for enqueue()
+     * @param n The current node being visited
+     * @param q The queue to add items to
+     */
+    private static void enqueue(Node n, Queue<String> q) {
+        if (n == null)
+            return;
+        if (n.value_here != 0) {
+            q.offer(n.str);
+        }
+        for (int i = 0; i < 26; ++i) {
+            enqueue(n.children.get(i), q);
+        }
+    }
+
+    /** Enqueue all of the elements of this Trie, in sorted order.
+     * @return A queue containing all of the elements of this Trie
+     */
+    public Queue<String> enqueue() {
+        Queue<String> q = new ArrayDeque<String>(size());
+        enqueue(root, q);
+        return q;
+    }
+
+    /** Get the number of elements in this Trie.
+     * @return The number of elements in the Trie.
+     */
+    public int size() {
+        return m_size.get();
+    }
+}
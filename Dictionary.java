@@ -0,0 +1,108 @@
+import java.util.concurrent.atomic.AtomicReference;
+
+/** The dictionary of a long running process, which can change while
+ * boards are being solved.
+ *
+ * Each version of the dictionary is a Trie that never changes once it is
+ * published.  A Board keeps the version it was made with, so a solve
+ * that is running when the dictionary changes finishes on the old version
+ * and boards made afterwards get the new one; nothing waits for anything.
+ * An old version is garbage once the last board using it is.
+ *
+ * insert() and delete() make the next version with Trie.withWord() and
+ * Trie.withoutWord(), which only copy the nodes on the path to the word,
+ * and publish it with a compare and swap (retrying if another update got
+ * in first).  reload() swaps in a whole new word list, loaded lazily (see
+ * Trie.loadLazy()) so the swap itself is quick and the new version's
+ * memory grows as it is used rather than all at once.  An update builds
+ * the lazy parts under the word's first letter, and no more.
+ */
+public class Dictionary {
+    /** The current version */
+    private final AtomicReference<Trie> current;
+
+    /** Create a Dictionary.
+     * @param t The first version
+     */
+    public Dictionary(Trie t) {
+        current = new AtomicReference<Trie>(t);
+    }
+
+    /** Get the current version.
+     * @return The Trie
+     */
+    public Trie current() {
+        return current.get();
+    }
+
+    /** Make a board that uses the current version.
+     * @param seed The seed for the board
+     * @return The board
+     */
+    public Board newBoard(long seed) {
+        return new Board(seed, current.get());
+    }
+
+    /** Add a word.
+     * @param s The word (case insensitive)
+     * @return True if it wasn't already there
+     */
+    public boolean insert(String s) {
+        while (true) {
+            Trie old = current.get();
+            Trie t = old.withWord(s);
+            if (t == old) {
+                return false;
+            }
+            if (current.compareAndSet(old, t)) {
+                published();
+                return true;
+            }
+        }
+    }
+
+    /** Remove a word.
+     * @param s The word (case insensitive)
+     * @return True if it was there
+     */
+    public boolean delete(String s) {
+        while (true) {
+            Trie old = current.get();
+            Trie t = old.withoutWord(s);
+            if (t == old) {
+                return false;
+            }
+            if (current.compareAndSet(old, t)) {
+                published();
+                return true;
+            }
+        }
+    }
+
+    /** Replace the whole dictionary.
+     * @param t The new version (which must not be changed afterwards)
+     * @return The version it replaced
+     */
+    public Trie replace(Trie t) {
+        Trie old = current.getAndSet(t);
+        published();
+        return old;
+    }
+
+    /** Update the gauge after a swap, from the version that is installed
+     * now rather than the one this thread swapped in:  another update can
+     * get in between, and then the gauge would describe a version nobody
+     * sees.
+     */
+    private void published() {
+        Metrics.DICTIONARY_IDS.set(current.get().idCount());
+    }
+
+    /** Replace the whole dictionary with a word file.
+     * @param filename The word file
+     * @return The version it replaced
+     */
+    public Trie reload(String filename) {
+        return replace(Trie.loadLazy(filename));
+    }
+}
@@ -0,0 +1,46 @@
+import java.util.Queue;
+
+/** Something that can find the words on a Board.
+ *
+ * Board.solve() goes through Engine.current(), which is picked once per
+ * process from the boggle.engine system property, so the engine can be
+ * chosen per deployment without changing any callers.  The only engine
+ * so far is "java" (the default):  JavaEngine, i.e. Board.allWords().
+ */
+public interface Engine {
+    /** Find the words on a board.
+     * @param b The board
+     * @return The words, in the same order as Board.allWords()
+     */
+    Queue<String> allWords(Board b);
+
+    /** Get the name of this engine, as for the boggle.engine property.
+     * @return The name
+     */
+    String name();
+
+    /** Create an engine by name.
+     * @param name The name, e.g. "java"
+     * @return The engine, or a JavaEngine if name is unknown
+     */
+    static Engine load(String name) {
+        if (!name.equals("java")) {
+            System.err.println("unknown engine " + name +
+                               ", using the java engine");
+        }
+        return new JavaEngine();
+    }
+
+    /** Get the engine for this process (see the class comment).
+     * @return The engine
+     */
+    static Engine current() {
+        return Current.ENGINE;
+    }
+
+    /** Holds the engine, so it is only loaded on first use. */
+    static class Current {
+        static final Engine ENGINE =
+                load(System.getProperty("boggle.engine", "java"));
+    }
+}
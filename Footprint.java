@@ -0,0 +1,224 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.io.IOException;
+
+/** How much heap a dictionary or result uses, and on what.
+ *
+ * Every dictionary (Trie, LoudsTrie, PackedTrie, HashTable, ConcurrentTrie,
+ * AVLTree) and result (WordPaths, or any collection of strings through
+ * of()) has a footprint() that walks it and adds up its parts:  the
+ * node objects, the child arrays, the cached strings and so on.  Java has
+ * no sizeof, so the sizes come from the usual layout of a 64 bit JVM with
+ * compressed pointers (the default for heaps under 32 GB) and compact
+ * strings (JDK 9+):  12 byte object headers, 16 byte array headers, 4 byte
+ * references, everything rounded up to 8 bytes.  That is what a heap dump
+ * would show, give or take the odd padding byte, and is exact enough to
+ * compare representations and to catch a regression.
+ *
+ * A string is counted by every structure that refers to it, even if
+ * another one refers to it too (e.g. a PackedTrie shares its words with
+ * the Trie it came from), so each footprint is what the structure would
+ * cost on its own.
+ */
+public class Footprint {
+    /** The size of an object header */
+    public static final int HEADER = 12;
+    /** The size of an array header (an object header plus the length) */
+    public static final int ARRAY = 16;
+    /** The size of a reference */
+    public static final int REF = 4;
+
+    /** What is being measured */
+    public final String name;
+    /** The number of words (strings) it holds */
+    public long words;
+    /** The number of nodes (or entries), 0 if it has none */
+    public long nodes;
+    /** The number of child (or table) slots, 0 if it has none */
+    public long slots;
+    /** The number of those slots in use */
+    public long filled;
+    /** The number of strings it keeps */
+    public long strings;
+    /** Bytes by part, in the order they were added */
+    private LinkedHashMap<String, Long> parts =
+            new LinkedHashMap<String, Long>();
+
+    /** Create an empty Footprint.
+     * @param n What is being measured
+     */
+    public Footprint(String n) {
+        name = n;
+    }
+
+    /** Round a size up to a multiple of 8 bytes.
+     * @param b The size
+     * @return The rounded size
+     */
+    public static long align(long b) {
+        return (b + 7) & ~7L;
+    }
+
+    /** The size of an object.
+     * @param fields The total size of its fields
+     * @return The size in bytes
+     */
+    public static long object(int fields) {
+        return align(HEADER + fields);
+    }
+
+    /** The size of an array.
+     * @param elem The size of an element
+     * @param n The length
+     * @return The size in bytes
+     */
+    public static long array(int elem, long n) {
+        return align(ARRAY + elem * n);
+    }
+
+    /** The size of a String, with the array holding its characters.
+     * @param s The string
+     * @return The size in bytes
+     */
+    public static long string(String s) {
+        int perChar = 1;
+        for (int i = 0; i < s.length(); ++i) {
+            if (s.charAt(i) > 0xff) {
+                perChar = 2;
+                break;
+            }
+        }
+        //value, hash, coder, hashIsZero
+        return object(REF + 4 + 1 + 1) + array(perChar, s.length());
+    }
+
+    /** Add bytes to a part.
+     * @param part The part, e.g. "nodes"
+     * @param bytes The bytes to add
+     */
+    public void add(String part, long bytes) {
+        Long b = parts.get(part);
+        parts.put(part, (b == null) ? bytes : b + bytes);
+    }
+
+    /** Count a string the structure keeps, under the part "strings".
+     * @param s The string
+     */
+    public void addString(String s) {
+        ++strings;
+        add("strings", string(s));
+    }
+
+    /** Get the bytes of a part.
+     * @param part The part
+     * @return The bytes (0 if there is no such part)
+     */
+    public long bytes(String part) {
+        Long b = parts.get(part);
+        return (b == null) ? 0 : b;
+    }
+
+    /** Get the total size.
+     * @return The bytes of all of the parts
+     */
+    public long total() {
+        long t = 0;
+        for (long b : parts.values()) {
+            t += b;
+        }
+        return t;
+    }
+
+    /** Get the fraction of the slots that are in use.
+     * @return filled / slots, or 0 if there are no slots
+     */
+    public double fillRatio() {
+        return (slots == 0) ? 0 : (double) filled / slots;
+    }
+
+    /** Measure a collection of strings, e.g. the result of allWords().
+     * The collection's own array is counted as one reference per
+     * element, which is a lower bound (an ArrayDeque rounds up to a
+     * power of 2).
+     * @param n What is being measured
+     * @param c The strings
+     * @return The footprint
+     */
+    public static Footprint of(String n, Collection<String> c) {
+        Footprint f = new Footprint(n);
+        f.words = c.size();
+        f.add("references", array(REF, c.size()));
+        for (String s : c) {
+            f.addString(s);
+        }
+        return f;
+    }
+
+    /** Describe the footprint, one part per line.
+     * @return e.g. "Trie: 12345678 bytes (192.5 per word)..."
+     */
+    public String toString() {
+        long t = total();
+        StringBuilder sb = new StringBuilder();
+        sb.append(name).append(": ").append(t).append(" bytes");
+        if (words > 0) {
+            sb.append(String.format(" (%.1f per word)", (double) t / words));
+        }
+        sb.append("\n  ").append(words).append(" words");
+        if (nodes > 0) {
+            sb.append(", ").append(nodes).append(" nodes");
+        }
+        if (strings > 0) {
+            sb.append(", ").append(strings).append(" strings");
+        }
+        if (slots > 0) {
+            sb.append(String.format(", %d of %d slots used (%.1f%%)",
+                                    filled, slots, 100 * fillRatio()));
+        }
+        for (Map.Entry<String, Long> e : parts.entrySet()) {
+            sb.append(String.format("%n  %-18s %12d bytes %5.1f%%",
+                                    e.getKey(), e.getValue(),
+                                    (t == 0) ? 0.0 : 100.0 * e.getValue() / t));
+        }
+        return sb.toString();
+    }
+
+    /** Print the footprints of the dictionaries built from a word file,
+     * and of the results for one board.
+     * Usage:  java Footprint [wordFile [seed]]
+     */
+    public static void main(String[] args) throws IOException {
+        String file = (args.length > 0) ? args[0] : "american-english";
+        long seed = (args.length > 1) ? Long.parseLong(args[1]) : 0;
+        Trie trie = Board.loadDictionary(file);
+        Trie lazy = Trie.loadLazy(file);
+        Board b = new Board(seed, lazy);
+        b.allWords();
+        Queue<String> list = trie.enqueue();
+        ConcurrentTrie ct = new ConcurrentTrie();
+        AVLTree<String> avl = new AVLTree<String>();
+        for (String s : list) {
+            ct.insertCase(s);
+            avl.insert(s.toUpperCase());
+        }
+
+        ArrayList<Footprint> all = new ArrayList<Footprint>();
+        all.add(trie.footprint());
+        all.add(lazy.footprint());     //after solving one board
+        all.add(LoudsTrie.load(file).footprint());
+        all.add(PackedTrie.from(trie).footprint());
+        all.add(HashTable.loadDictionary(file).footprint());
+        all.add(ct.footprint());
+        all.add(avl.footprint());
+        all.add(Footprint.of("allWords() of board " + seed,
+                             new Board(seed, trie).allWords()));
+        all.add(new Board(seed, trie).allPaths().footprint());
+        for (Footprint f : all) {
+            System.out.println(f);
+            System.out.println();
+        }
+    }
+}
@@ -0,0 +1,286 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Random;
+
+/** Scoring for a game of Boggle between any number of players.
+ *
+ * In real Boggle a word found by more than one player is crossed off
+ * everyone's list, and only the words nobody else found score.  The
+ * board's words are numbered [0, words()) in the order allPaths() finds
+ * them, and each player's list is a bitset over those numbers, so a board
+ * of a few hundred words is a handful of longs per player.  score() then
+ * finds the words found once and the words found twice or more a long at
+ * a time (the usual "once / twice" trick), and each player's points are
+ * popcounts of their bits against one mask per point value.  Nothing in
+ * there allocates per word, so scoring 100 players takes a few
+ * microseconds.
+ */
+public class Game {
+    /** The result of scoring a game */
+    public static class Result {
+        /** scores[p] is player p's points, counting only unique words */
+        public final int[] scores;
+        /** counts[p] is the number of player p's words nobody else found */
+        public final int[] counts;
+        /** The words found by exactly one player, as a bitset */
+        public final long[] unique;
+        /** The words found by two or more players (so crossed off) */
+        public final long[] cancelled;
+
+        /** Construct a Result
+         * @param s The scores
+         * @param c The counts
+         * @param u The unique words
+         * @param x The cancelled words
+         */
+        public Result(int[] s, int[] c, long[] u, long[] x) {
+            scores = s;
+            counts = c;
+            unique = u;
+            cancelled = x;
+        }
+
+        /** Check whether a word was crossed off.
+         * @param i The word, [0, words())
+         * @return True if two or more players found it
+         */
+        public boolean isCancelled(int i) {
+            return (cancelled[i >>> 6] & (1L << i)) != 0;
+        }
+    }
+
+    /** The words on the board */
+    private WordPaths found;
+    /** The number of each word, by its upper case spelling */
+    private HashMap<String, Integer> index;
+    /** The number of longs in a bitset */
+    private int longs;
+    /** The distinct point values of the board's words */
+    private int[] values;
+    /** byValue[v] is the bitset of the words worth values[v] points */
+    private long[][] byValue;
+    /** The players' names */
+    private ArrayList<String> names = new ArrayList<String>();
+    /** The players' words, as bitsets */
+    private ArrayList<long[]> lists = new ArrayList<long[]>();
+
+    /** Start a game on a board.  The board is solved once, here.
+     * @param b The board
+     */
+    public Game(Board b) {
+        found = b.allPaths();
+        int n = found.size();
+        longs = (n + 63) / 64;
+        index = new HashMap<String, Integer>(2 * n);
+
+        long[][] masks = new long[Board.points(Integer.MAX_VALUE) + 1][];
+        int distinct = 0;
+        for (int i = 0; i < n; ++i) {
+            String w = found.word(i).toUpperCase();
+            index.put(w, i);
+            int pts = Board.points(w.length());
+            if (pts == 0) {
+                continue;       //too short to score
+            }
+            if (masks[pts] == null) {
+                masks[pts] = new long[longs];
+                ++distinct;
+            }
+            masks[pts][i >>> 6] |= 1L << i;
+        }
+        values = new int[distinct];
+        byValue = new long[distinct][];
+        distinct = 0;
+        for (int pts = 1; pts < masks.length; ++pts) {
+            if (masks[pts] != null) {
+                values[distinct] = pts;
+                byValue[distinct++] = masks[pts];
+            }
+        }
+    }
+
+    /** Get the number of words on the board.
+     * @return The number of words
+     */
+    public int words() {
+        return found.size();
+    }
+
+    /** Get one of the board's words.
+     * @param i The word, [0, words())
+     * @return The word
+     */
+    public String word(int i) {
+        return found.word(i);
+    }
+
+    /** Find a word's number.
+     * @param word The word, in any case
+     * @return Its number, or -1 if it isn't on the board
+     */
+    public int index(String word) {
+        Integer i = index.get(word.toUpperCase());
+        return (i == null) ? -1 : i;
+    }
+
+    /** Add a player with no words yet.
+     * @param name The player's name
+     * @return The player's number, for found() and the Result
+     */
+    public int addPlayer(String name) {
+        names.add(name);
+        lists.add(new long[longs]);
+        return names.size() - 1;
+    }
+
+    /** Get a player's name.
+     * @param p The player
+     * @return The name
+     */
+    public String name(int p) {
+        return names.get(p);
+    }
+
+    /** Get the number of players.
+     * @return The number of players
+     */
+    public int players() {
+        return names.size();
+    }
+
+    /** Record that a player found a word.  Finding it again is harmless.
+     * @param p The player
+     * @param word The word, in any case
+     * @return False if the word isn't on the board (and so doesn't count)
+     */
+    public boolean found(int p, String word) {
+        int i = index(word);
+        if (i < 0) {
+            return false;
+        }
+        found(p, i);
+        return true;
+    }
+
+    /** Record that a player found a word, by its number.
+     * @param p The player
+     * @param i The word, [0, words())
+     */
+    public void found(int p, int i) {
+        lists.get(p)[i >>> 6] |= 1L << i;
+    }
+
+    /** Record a player's whole list.
+     * @param p The player
+     * @param words The words
+     * @return The number of them that weren't on the board
+     */
+    public int foundAll(int p, Collection<String> words) {
+        int bad = 0;
+        for (String w : words) {
+            if (!found(p, w)) {
+                ++bad;
+            }
+        }
+        return bad;
+    }
+
+    /** Get a player's words.
+     * @param p The player
+     * @return The bitset (not a copy)
+     */
+    public long[] bits(int p) {
+        return lists.get(p);
+    }
+
+    /** Score the game as it stands, crossing off every word that more
+     * than one player found.
+     * @return The scores
+     */
+    public Result score() {
+        int np = lists.size();
+        long[] once = new long[longs];
+        long[] twice = new long[longs];
+        int[] scores = new int[np];
+        int[] counts = new int[np];
+
+        for (int p = 0; p < np; ++p) {
+            long[] bits = lists.get(p);
+            for (int w = 0; w < longs; ++w) {
+                twice[w] |= once[w] & bits[w];
+                once[w] |= bits[w];
+            }
+        }
+        for (int w = 0; w < longs; ++w) {
+            once[w] &= ~twice[w];
+        }
+        for (int p = 0; p < np; ++p) {
+            long[] bits = lists.get(p);
+            int pts = 0;
+            int n = 0;
+            for (int w = 0; w < longs; ++w) {
+                long mine = bits[w] & once[w];
+                if (mine == 0) {
+                    continue;
+                }
+                n += Long.bitCount(mine);
+                for (int v = 0; v < values.length; ++v) {
+                    pts += values[v] * Long.bitCount(mine & byValue[v][w]);
+                }
+            }
+            scores[p] = pts;
+            counts[p] = n;
+        }
+        return new Result(scores, counts, once, twice);
+    }
+
+    /** Time scoring a game between many players, each of whom found a
+     * random share of the board's words.
+     * Usage:  java Game [players [seed]]
+     */
+    public static void main(String[] args) {
+        int players = (args.length > 0) ? Integer.parseInt(args[0]) : 100;
+        long seed = (args.length > 1) ? Long.parseLong(args[1]) : 0;
+        Game g = new Game(new Board(seed,
+                                    Board.loadDictionary("american-english")));
+        Random r = new Random(seed);
+        for (int p = 0; p < players; ++p) {
+            g.addPlayer("player " + p);
+            double share = r.nextDouble() / 20;
+            for (int i = 0; i < g.words(); ++i) {
+                if (r.nextDouble() < share) {
+                    g.found(p, i);
+                }
+            }
+        }
+
+        Result res = null;
+        int reps = 100000;
+        for (int i = 0; i < reps; ++i) {    //warm up
+            res = g.score();
+        }
+        long t = System.nanoTime();
+        for (int i = 0; i < reps; ++i) {
+            res = g.score();
+        }
+        t = System.nanoTime() - t;
+
+        int best = 0;
+        for (int p = 1; p < players; ++p) {
+            if (res.scores[p] > res.scores[best]) {
+                best = p;
+            }
+        }
+        int cancelled = 0;
+        for (long x : res.cancelled) {
+            cancelled += Long.bitCount(x);
+        }
+        System.out.println(g.words() + " words on board " + seed + ", " +
+                           cancelled + " found by more than one of " +
+                           players + " players");
+        System.out.println(g.name(best) + " wins with " + res.scores[best] +
+                           " points from " + res.counts[best] + " words");
+        System.out.println((t / 1000.0 / reps) + " microseconds per score()");
+    }
+}
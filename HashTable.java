@@ -1,83 +1,392 @@
-import java.util.Scanner;
-import java.util.LinkedList;
+import java.util.Arrays;
 import java.util.Queue;
+import java.util.ArrayDeque;
 
-/** Implements a fixed size hash table.
- * Resizing is not implemented so efficiency requires knowledge of how
- * many elements will be added to the table at construction time.
+/** A set of strings in an open addressing hash table.
+ * Like Trie, keys are case insensitive (they are stored and compared in
+ * uppercase) and enqueue() returns each string as it was inserted.
  *
- * @param <T> The type of object to store.
+ * The table can also store every proper prefix of every string (pass
+ * prefixes = true to the constructor), which makes it a drop in for the
+ * Trie in the board search:  lookup() tells whether a string is in the
+ * set and whether it is the prefix of a longer one, so the search can
+ * abandon dead paths early just as it does with Trie.SearchIterator.
+ * The search keeps the hash of the current prefix as it goes (see
+ * hash(int, char)), so extending a prefix by a letter costs one probe
+ * sequence and no hashing of the whole string.
+ *
+ * Entries don't copy strings:  an entry is "the first len characters of
+ * this inserted string", so the prefixes of a word all point at the word.
+ * The table uses linear probing and doubles when it is half full.
  */
-public class HashTable<T extends Comparable<T>> {
-    /** The array of buckets */
-    private LinkedList<T>[] buckets;
-    /** Construct a HashTable with a given number of buckets.
-     * @param num_buckets How many buckets to use
-     */
-    public HashTable(int num_buckets) {
-        init(num_buckets);
-    }
+public class HashTable {
+    /** lookup() flag:  the string is in the set */
+    public static final int WORD = 1;
+    /** lookup() flag:  the string is a proper prefix of one in the set */
+    public static final int PREFIX = 2;
+
+    /** The inserted string each entry is a prefix of (null if empty) */
+    private String[] keys;
+    /** The length of each entry's prefix of its key */
+    private short[] lens;
+    /** The hash of each entry, see hash() */
+    private int[] hashes;
+    /** The WORD/PREFIX flags of each entry */
+    private byte[] flags;
+    /** The number of entries in use */
+    private int used;
+    /** The number of strings in the set */
+    private int m_size;
+    /** Whether to store prefixes */
+    private boolean prefixes;
+
     /** Construct a HashTable.
-     * The default size is 1024 buckets
+     * @param expected Roughly how many entries there will be (strings,
+     *                 plus prefixes if they are stored).  The table grows
+     *                 as needed, this just avoids the early resizes.
+     * @param prefixes Whether to store every proper prefix too
      */
+    public HashTable(int expected, boolean prefixes) {
+        int cap = 16;
+        while (cap < expected * 2) {
+            cap <<= 1;
+        }
+        init(cap);
+        this.prefixes = prefixes;
+    }
+
+    /** Construct a HashTable with no prefixes and a small default size. */
     public HashTable() {
-        init(1024); //a sane default size for many sets
+        this(512, false);
     }
+
     /** Initialization routine
-     * @param num_buckets How many buckets to initialize
+     * @param cap The number of slots (a power of 2)
+     */
+    private void init(int cap) {
+        keys = new String[cap];
+        lens = new short[cap];
+        hashes = new int[cap];
+        flags = new byte[cap];
+        used = 0;
+    }
+
+    /** Extend a hash by a character.  The hash of a string is the same
+     * as String.hashCode() of its uppercase version.
+     * @param h The hash of the prefix (0 for the empty string)
+     * @param c The next character (uppercase)
+     * @return The hash of the extended prefix
+     */
+    public static int hash(int h, char c) {
+        return h * 31 + c;
+    }
+
+    /** Convert a hash to a slot
+     * @param h The hash
+     * @param mask The number of slots minus 1
+     * @return The first slot to probe
+     */
+    private static int slot(int h, int mask) {
+        h *= 0x9E3779B9; //the low bits of String hashes are poor
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /** Check if an entry holds a given string.
+     * @param i The slot
+     * @param buf The string's characters (uppercase)
+     * @param len The string's length
+     * @return True if the entry is that string
+     */
+    private boolean matches(int i, char[] buf, int len) {
+        if (lens[i] != len) {
+            return false;
+        }
+        String k = keys[i];
+        for (int j = 0; j < len; ++j) {
+            if (Character.toUpperCase(k.charAt(j)) != buf[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Check if an entry holds a given prefix of a string.
+     * @param i The slot
+     * @param s The string
+     * @param len The length of the prefix
+     * @return True if the entry is that prefix (case insensitive)
+     */
+    private boolean matches(int i, String s, int len) {
+        if (lens[i] != len) {
+            return false;
+        }
+        String k = keys[i];
+        for (int j = 0; j < len; ++j) {
+            if (Character.toUpperCase(k.charAt(j))
+                    != Character.toUpperCase(s.charAt(j)))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Find the slot for a prefix of a string, or the empty slot where
+     * it would go.
+     * @param s The string
+     * @param len The length of the prefix
+     * @param h The hash of the prefix
+     * @return The slot
+     */
+    private int probe(String s, int len, int h) {
+        int mask = keys.length - 1;
+        int i = slot(h, mask);
+        while (keys[i] != null
+                && !(hashes[i] == h && matches(i, s, len)))
+        {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /** Set flags on a prefix of a string, adding an entry if needed.
+     * @param s The string
+     * @param len The length of the prefix
+     * @param h The hash of the prefix
+     * @param f The flags to set
+     * @return The flags the entry had before (0 if it is new)
+     */
+    private int mark(String s, int len, int h, int f) {
+        int i = probe(s, len, h);
+        int old = flags[i];
+        if (keys[i] == null) {
+            keys[i] = s;
+            lens[i] = (short) len;
+            hashes[i] = h;
+            ++used;
+        }
+        else if ((f & WORD) != 0) {
+            //like Trie.insertCase(), the latest spelling is the one kept
+            keys[i] = s;
+        }
+        flags[i] |= f;
+        if (used * 2 > keys.length) {
+            resize();
+        }
+        return old;
+    }
+
+    /** Double the number of slots. */
+    private void resize() {
+        String[] k = keys;
+        short[] l = lens;
+        int[] h = hashes;
+        byte[] f = flags;
+
+        init(k.length * 2);
+        int mask = keys.length - 1;
+        for (int j = 0; j < k.length; ++j) {
+            if (k[j] == null) {
+                continue;
+            }
+            int i = slot(h[j], mask);
+            while (keys[i] != null) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = k[j];
+            lens[i] = l[j];
+            hashes[i] = h[j];
+            flags[i] = f[j];
+            ++used;
+        }
+    }
+
+    /** Insert a string into the set (case insensitive).
+     * @param s The string to insert
+     * @return True if it was not already in the set
      */
-    @SuppressWarnings("unchecked")
-    private void init(int num_buckets) {
-        //have I spewed enough about my hatred of java generics?
-        buckets = (LinkedList<T>[]) new LinkedList[num_buckets];
-        for (int i = 0; i < buckets.length; ++i) {
-            buckets[i] = new LinkedList<T>();
+    public boolean insert(String s) {
+        int h = 0;
+        for (int len = 1; len <= s.length(); ++len) {
+            h = hash(h, Character.toUpperCase(s.charAt(len - 1)));
+            if (len < s.length() && prefixes) {
+                mark(s, len, h, PREFIX);
+            }
+        }
+        if ((mark(s, s.length(), h, WORD) & WORD) != 0) {
+            return false;
         }
+        ++m_size;
+        return true;
     }
-    /** Convert a hash to an index
-     * @param num The hash
-     * @param mod The number of buckets
+
+    /** Determine if a string is in the set (case insensitive).
+     * @param s The string to search for
+     * @return True if found
      */
-    private static int toi(int num, int mod) {
-        int x = num % mod;
-        //handle large hashes (which, because java treats me like a child,
-        //I can't use unsigned for).
-        if (x < 0) x += mod; //I LOVE MY PADDED CELL
-        return x;
+    public boolean find(String s) {
+        int h = 0;
+        for (int j = 0; j < s.length(); ++j) {
+            h = hash(h, Character.toUpperCase(s.charAt(j)));
+        }
+        int i = probe(s, s.length(), h);
+        return keys[i] != null && (flags[i] & WORD) != 0;
     }
-    /** Insert into the HashTable.
-     * @param t The data to insert
+
+    /** Look up a string given as a buffer and its hash.  This is the
+     * board search's equivalent of moving a Trie.SearchIterator.
+     * @param buf The string's characters (uppercase)
+     * @param len The string's length
+     * @param h The string's hash, see hash(int, char)
+     * @return The WORD and PREFIX flags for the string (PREFIX is only
+     *         ever set if the table stores prefixes).  0 means the string
+     *         is neither, so there is no point searching any further.
      */
-    public void insert(T t) {
-        LinkedList<T> l = buckets[toi(t.hashCode(), buckets.length)];
-        if (!l.contains(t)) {
-            l.addFirst(t);
+    public int lookup(char[] buf, int len, int h) {
+        int mask = keys.length - 1;
+        int i = slot(h, mask);
+        while (keys[i] != null) {
+            if (hashes[i] == h && matches(i, buf, len)) {
+                return flags[i];
+            }
+            i = (i + 1) & mask;
         }
+        return 0;
     }
-    /** Determine if data is in the HashTable.
-     * @param t The data to search for
+
+    /** Get the string stored for a buffer, as it was inserted.
+     * @param buf The string's characters (uppercase)
+     * @param len The string's length
+     * @param h The string's hash
+     * @return The inserted string, or null if it isn't in the set
      */
-    public boolean find(T t) {
-        return buckets[toi(t.hashCode(), buckets.length)].contains(t);
+    public String get(char[] buf, int len, int h) {
+        int mask = keys.length - 1;
+        int i = slot(h, mask);
+        while (keys[i] != null) {
+            if (hashes[i] == h && matches(i, buf, len)) {
+                return ((flags[i] & WORD) != 0) ? keys[i] : null;
+            }
+            i = (i + 1) & mask;
+        }
+        return null;
     }
+
     /** Place all of the elements of this HashTable into a queue.
      * @return A queue containing all of the elements in this HashTable.
      */
-    public Queue<T> enqueue() {
-        Queue<T> q = new LinkedList<T>();
+    public Queue<String> enqueue() {
+        Queue<String> q = new ArrayDeque<String>(m_size);
         enqueue(q);
         return q;
     }
-    /** Enqueue all of the elements of this HashTable into a queue.
+
+    /** Enqueue all of the elements of this HashTable into a queue, in no
+     * particular order.
      * @param q The queue to which to add the elements.
      */
-    public void enqueue(Queue<T> q) {
-        for (LinkedList<T> bucket : buckets) {
-            for (T t : bucket) {
-                q.offer(t);
+    public void enqueue(Queue<String> q) {
+        for (int i = 0; i < keys.length; ++i) {
+            if (keys[i] != null && (flags[i] & WORD) != 0) {
+                q.offer(keys[i]);
             }
         }
     }
-}
 
+    /** Get the number of strings in the set.
+     * @return The number of strings (not counting prefixes)
+     */
+    public int size() {
+        return m_size;
+    }
+
+    /** Measure the heap this HashTable uses (see Footprint).  The slots
+     * are the table's, so the fill ratio is its load factor.
+     * @return The footprint
+     */
+    public Footprint footprint() {
+        Footprint f = new Footprint(prefixes ? "HashTable (with prefixes)"
+                                             : "HashTable");
+        f.words = m_size;
+        f.nodes = used;
+        f.slots = keys.length;
+        f.filled = used;
+        f.add("keys", Footprint.array(Footprint.REF, keys.length));
+        f.add("lengths", Footprint.array(2, lens.length));
+        f.add("hashes", Footprint.array(4, hashes.length));
+        f.add("flags", Footprint.array(1, flags.length));
+        for (int i = 0; i < keys.length; ++i) {
+            //every prefix entry points at its word's entry's string
+            if (keys[i] != null && (flags[i] & WORD) != 0) {
+                f.addString(keys[i]);
+            }
+        }
+        return f;
+    }
+
+    /** Load a dictionary, with prefixes, from a word file.
+     * @param filename The word file, e.g. "american-english"
+     * @return The dictionary
+     */
+    public static HashTable loadDictionary(String filename) {
+        HashTable words = new HashTable(1 << 17, true);
+        try {
+            java.util.Scanner s =
+                    new java.util.Scanner(new java.io.File(filename));
+            while (s.hasNext()) {
+                words.insert(s.next());
+            }
+            s.close();
+        }
+        catch (java.io.FileNotFoundException fnfe) {
+            fnfe.printStackTrace();
+        }
+        return words;
+    }
+
+    /** Benchmark the board search with this as the dictionary against
+     * the Trie, over a range of seeds.
+     * Usage:  java HashTable [firstSeed [count]]
+     */
+    public static void main(String[] args) {
+        long first = (args.length > 0) ? Long.parseLong(args[0]) : 0;
+        int count = (args.length > 1) ? Integer.parseInt(args[1]) : 1000;
 
+        long t = System.nanoTime();
+        Trie trie = Board.loadDictionary("american-english");
+        long trieLoad = System.nanoTime() - t;
+        t = System.nanoTime();
+        HashTable table = loadDictionary("american-english");
+        long tableLoad = System.nanoTime() - t;
+
+        Board[] boards = new Board[count];
+        for (int i = 0; i < count; ++i) {
+            boards[i] = new Board(first + i, trie);
+        }
+        //twice, so the second round is after the JIT has warmed up
+        long trieTime = 0;
+        long tableTime = 0;
+        long triePts = 0;
+        long tablePts = 0;
+        for (int round = 0; round < 2; ++round) {
+            trieTime = System.nanoTime();
+            triePts = 0;
+            for (Board b : boards) {
+                triePts += Board.countPoints(b.allWords());
+            }
+            trieTime = System.nanoTime() - trieTime;
+            tableTime = System.nanoTime();
+            tablePts = 0;
+            for (Board b : boards) {
+                tablePts += Board.countPoints(b.allWords(table));
+            }
+            tableTime = System.nanoTime() - tableTime;
+        }
+        System.out.println("trie:  load " + (trieLoad / 1000000) + " ms, " +
+                           "solve " + (trieTime / 1000000) + " ms, " +
+                           triePts + " points");
+        System.out.println("table: load " + (tableLoad / 1000000) + " ms, " +
+                           "solve " + (tableTime / 1000000) + " ms, " +
+                           tablePts + " points");
+    }
+}
@@ -0,0 +1,14 @@
+import java.util.Queue;
+
+/** The engine that solves a Board in Java, with its own dictionary (see
+ * Board.allWords()).
+ */
+public class JavaEngine implements Engine {
+    public Queue<String> allWords(Board b) {
+        return b.allWords();
+    }
+
+    public String name() {
+        return "java";
+    }
+}
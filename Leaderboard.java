@@ -0,0 +1,135 @@
+import java.util.HashMap;
+import java.util.Queue;
+import java.util.ArrayDeque;
+
+/** A live leaderboard of players' scores.
+ * Scores are kept in an AVLTree ordered best first, so updating a score,
+ * finding a player's place, counting the players in a score range and
+ * listing the top k are all O(log n) (plus k).
+ */
+public class Leaderboard {
+    /** A player's standing.  Higher scores sort first; ties are broken
+     * by name so that every entry is distinct.
+     */
+    public static class Entry implements Comparable<Entry> {
+        /** The player */
+        public final String player;
+        /** The player's score */
+        public final long score;
+
+        /** Construct an Entry
+         * @param p The player
+         * @param s The score
+         */
+        public Entry(String p, long s) {
+            player = p;
+            score = s;
+        }
+
+        public int compareTo(Entry e) {
+            if (score != e.score) {
+                return (score > e.score) ? -1 : 1;
+            }
+            return player.compareTo(e.player);
+        }
+
+        public String toString() {
+            return player + " " + score;
+        }
+    }
+
+    /** The standings, best first */
+    private AVLTree<Entry> standings;
+    /** Each player's current entry */
+    private HashMap<String, Entry> entries;
+
+    /** Create an empty leaderboard. */
+    public Leaderboard() {
+        standings = new AVLTree<Entry>();
+        entries = new HashMap<String, Entry>();
+    }
+
+    /** Set a player's score, adding the player if they are new.
+     * @param player The player
+     * @param score The new score
+     */
+    public void update(String player, long score) {
+        Entry e = new Entry(player, score);
+        Entry old = entries.put(player, e);
+        if (old != null) {
+            standings.delete(old);
+        }
+        standings.insert(e);
+    }
+
+    /** Add to a player's score (e.g. after each game).
+     * @param player The player
+     * @param points The points to add
+     */
+    public void add(String player, long points) {
+        Entry old = entries.get(player);
+        update(player, (old == null) ? points : old.score + points);
+    }
+
+    /** Remove a player.
+     * @param player The player
+     */
+    public void remove(String player) {
+        Entry old = entries.remove(player);
+        if (old != null) {
+            standings.delete(old);
+        }
+    }
+
+    /** Get a player's score.
+     * @param player The player
+     * @return The score, or 0 if the player isn't on the board
+     */
+    public long score(String player) {
+        Entry e = entries.get(player);
+        return (e == null) ? 0 : e.score;
+    }
+
+    /** Get a player's place.
+     * @param player The player
+     * @return The place (1 is first), or 0 if the player isn't on the board
+     */
+    public int place(String player) {
+        Entry e = entries.get(player);
+        return (e == null) ? 0 : standings.rank(e) + 1;
+    }
+
+    /** Count the players with scores in a range.
+     * @param lo The lowest score (inclusive)
+     * @param hi The highest score (inclusive)
+     * @return The number of players
+     */
+    public int count(long lo, long hi) {
+        //"" sorts before every name, so (s, "") is just ahead of all of
+        //the players with score s.  The range ends just ahead of score
+        //lo - 1, unless lo is the lowest score there is (where lo - 1
+        //would wrap around to the highest), and then it runs to the end.
+        Entry top = new Entry("", hi);
+        if (lo == Long.MIN_VALUE) {
+            return size() - standings.rank(top);
+        }
+        return standings.count(top, new Entry("", lo - 1));
+    }
+
+    /** Get the top of the leaderboard.
+     * @param k How many places
+     * @return The top k entries, best first
+     */
+    public Queue<Entry> top(int k) {
+        Queue<Entry> q = new ArrayDeque<Entry>(Math.min(k, size()));
+        standings.enqueue(0, k, q);
+        return q;
+    }
+
+    /** Get the number of players on the leaderboard.
+     * @return The number of players
+     */
+    public int size() {
+        return standings.size();
+    }
+}
@@ -0,0 +1,392 @@
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Scanner;
+import java.io.File;
+import java.io.FileNotFoundException;
+
+/** A succinct, read only prefix Trie.
+ * Like Trie, this only works on strings "[A-Z]*" (case is folded when
+ * building).  Unlike Trie, there are no node objects at all:  the shape
+ * of the tree is a LOUDS bitvector (level order unary degree sequence),
+ * which takes about two bits per node, plus one byte per node for its
+ * letter and one bit per node to say if it is a word.  That is a few
+ * bytes per word, against the Trie's hundreds.
+ *
+ * Nodes are numbered 0 (the root) to numNodes() - 1 in level order, and
+ * an iterator is just a node number (see root(), child() and isWord()).
+ * In the LOUDS bits each node in turn writes a 1 per child and then a 0,
+ * so node v's children are described by the bits between the v'th and
+ * the (v + 1)'th 0.  The k'th 1 overall is node k + 1, so the first child
+ * of v is (start of v's bits) - v + 1, and child() only needs select0.
+ * Word ids (rank1 over the word bits) come from rank().
+ *
+ * The strings themselves are not stored; a search has to keep track of
+ * the letters it went through.
+ */
+public class LoudsTrie {
+    /** How many 0s between samples in zeroSamples */
+    private static final int SAMPLE = 64;
+
+    /** The LOUDS bits */
+    private long[] louds;
+    /** The number of LOUDS bits */
+    private long numBits;
+    /** zeroSamples[k] is the index of the word of louds that holds the
+     * (k * SAMPLE)'th 0 */
+    private int[] zeroSamples;
+    /** zerosBefore[k] is the number of 0s in louds[0, k) */
+    private int[] zerosBefore;
+    /** labels[v - 1] is the letter of node v */
+    private byte[] labels;
+    /** Bit v is set if node v is a word */
+    private long[] words;
+    /** wordsBefore[k] is the number of 1s in words[0, k) */
+    private int[] wordsBefore;
+    /** The number of nodes */
+    private int numNodes;
+    /** The number of words */
+    private int m_size;
+
+    /** A growable bitvector, for building. */
+    private static class Bits {
+        long[] bits = new long[1024];
+        long n = 0;
+
+        void add(boolean b) {
+            int w = (int) (n >>> 6);
+            if (w == bits.length) {
+                bits = Arrays.copyOf(bits, w * 2);
+            }
+            if (b) {
+                bits[w] |= 1L << (n & 63);
+            }
+            ++n;
+        }
+
+        long[] done() {
+            return Arrays.copyOf(bits, (int) ((n + 63) >>> 6));
+        }
+    }
+
+    /** Build a LoudsTrie.
+     * @param list The strings (any order, any case, may repeat)
+     * @return The LoudsTrie
+     */
+    public static LoudsTrie build(String[] list) {
+        String[] w = new String[list.length];
+        for (int i = 0; i < list.length; ++i) {
+            w[i] = list[i].toUpperCase();
+        }
+        Arrays.sort(w);
+        int n = 0;
+        for (int i = 0; i < w.length; ++i) {
+            if (n == 0 || !w[i].equals(w[n - 1])) {
+                w[n++] = w[i];
+            }
+        }
+        return new LoudsTrie(Arrays.copyOf(w, n));
+    }
+
+    /** Build a LoudsTrie from a word file.
+     * Prints a stack trace if the file is not found, and returns an empty
+     * LoudsTrie.
+     * @param filename The word file, e.g. "american-english"
+     * @return The LoudsTrie
+     */
+    public static LoudsTrie load(String filename) {
+        ArrayList<String> list = new ArrayList<String>();
+        try {
+            Scanner s = new Scanner(new File(filename));
+            while (s.hasNext()) {
+                list.add(s.next());
+            }
+            s.close();
+        }
+        catch (FileNotFoundException fnfe) {
+            fnfe.printStackTrace();
+        }
+        return build(list.toArray(new String[list.size()]));
+    }
+
+    /** Build the LOUDS from sorted, distinct, uppercase strings.
+     * Level order falls out of a queue of ranges:  the strings under a
+     * node are a contiguous range w[lo, hi) sharing their first depth
+     * letters, and its children split that range by the next letter.
+     * @param w The strings
+     */
+    private LoudsTrie(String[] w) {
+        Bits lb = new Bits();
+        Bits wb = new Bits();
+        byte[] lab = new byte[1024];
+        //the queue of nodes, as ranges of w
+        int[] qlo = new int[1024];
+        int[] qhi = new int[1024];
+        int[] qdepth = new int[1024];
+        int head = 0;
+        int tail = 0;
+
+        qlo[tail] = 0;
+        qhi[tail] = w.length;
+        qdepth[tail] = 0;
+        ++tail;
+        while (head < tail) {
+            int lo = qlo[head];
+            int hi = qhi[head];
+            int depth = qdepth[head];
+            ++head;
+
+            //sorted, so if the prefix itself is a string it comes first
+            boolean word = lo < hi && w[lo].length() == depth;
+            wb.add(word);
+            if (word) {
+                ++m_size;
+                ++lo;
+            }
+            while (lo < hi) {
+                char c = w[lo].charAt(depth);
+                int end = lo + 1;
+                while (end < hi && w[end].charAt(depth) == c) {
+                    ++end;
+                }
+                lb.add(true);
+                if (tail == qlo.length) {
+                    qlo = Arrays.copyOf(qlo, tail * 2);
+                    qhi = Arrays.copyOf(qhi, tail * 2);
+                    qdepth = Arrays.copyOf(qdepth, tail * 2);
+                }
+                if (tail - 1 == lab.length) {
+                    lab = Arrays.copyOf(lab, lab.length * 2);
+                }
+                lab[tail - 1] = (byte) c;
+                qlo[tail] = lo;
+                qhi[tail] = end;
+                qdepth[tail] = depth + 1;
+                ++tail;
+                lo = end;
+            }
+            lb.add(false);
+        }
+        numNodes = tail;
+        numBits = lb.n;
+        louds = lb.done();
+        words = wb.done();
+        labels = Arrays.copyOf(lab, Math.max(numNodes - 1, 0));
+
+        //directories for select0 on louds and rank1 on words
+        zerosBefore = new int[louds.length + 1];
+        ArrayList<Integer> samples = new ArrayList<Integer>();
+        int zeros = 0;
+        for (int i = 0; i < louds.length; ++i) {
+            zerosBefore[i] = zeros;
+            int z = 64 - Long.bitCount(louds[i]);
+            if (i == louds.length - 1 && (numBits & 63) != 0) {
+                z -= 64 - (int) (numBits & 63);  //unused high bits
+            }
+            //record this word for each sample that falls in it
+            while (samples.size() * (long) SAMPLE < zeros + z) {
+                samples.add(i);
+            }
+            zeros += z;
+        }
+        zerosBefore[louds.length] = zeros;
+        zeroSamples = new int[samples.size()];
+        for (int i = 0; i < zeroSamples.length; ++i) {
+            zeroSamples[i] = samples.get(i);
+        }
+        wordsBefore = new int[words.length + 1];
+        for (int i = 0; i < words.length; ++i) {
+            wordsBefore[i + 1] = wordsBefore[i] + Long.bitCount(words[i]);
+        }
+    }
+
+    /** Find the position of the k'th 0 (counting from 0) in the LOUDS.
+     * @param k Which 0
+     * @return Its bit index
+     */
+    private long select0(int k) {
+        int i = zeroSamples[k / SAMPLE];
+        while (zerosBefore[i + 1] <= k) {
+            ++i;
+        }
+        //the 0s of louds[i] are the 1s of its complement
+        long x = ~louds[i];
+        for (int j = k - zerosBefore[i]; j > 0; --j) {
+            x &= x - 1;
+        }
+        return ((long) i << 6) + Long.numberOfTrailingZeros(x);
+    }
+
+    /** Get the root node.
+     * @return The root
+     */
+    public int root() {
+        return 0;
+    }
+
+    /** Get the child of a node by letter.
+     * @param v The node
+     * @param c The letter (uppercase)
+     * @return The child, or -1 if there is none
+     */
+    public int child(int v, char c) {
+        long start = (v == 0) ? 0 : select0(v - 1) + 1;
+        long end = select0(v);
+        //node numbers of the children, and so indices into labels + 1
+        int first = (int) (start - v) + 1;
+        int last = (int) (end - v) + 1;
+        for (int u = first; u < last; ++u) {
+            int l = labels[u - 1];
+            if (l == c) {
+                return u;
+            }
+            if (l > c) {
+                break;  //labels are sorted
+            }
+        }
+        return -1;
+    }
+
+    /** Check if a node is a word.
+     * @param v The node
+     * @return True if the string at v is in the set
+     */
+    public boolean isWord(int v) {
+        return (words[v >>> 6] & (1L << v)) != 0;
+    }
+
+    /** Get the number of words at nodes before v (rank1 of the word
+     * bits).  For a word node this is a dense id, [0, size()), in level
+     * order (shorter words first).
+     * @param v The node
+     * @return The rank
+     */
+    public int rank(int v) {
+        return wordsBefore[v >>> 6] +
+               Long.bitCount(words[v >>> 6] & ((1L << v) - 1));
+    }
+
+    /** Find the node for a string.
+     * @param s The string (case insensitive)
+     * @return The node, or -1 if no string starts with s
+     */
+    private int node(String s) {
+        int v = 0;
+        for (int i = 0; i < s.length() && v >= 0; ++i) {
+            v = child(v, Character.toUpperCase(s.charAt(i)));
+        }
+        return v;
+    }
+
+    /** Determine if a string is in the set.
+     * @param s The string (case insensitive)
+     * @return SearchResult.{NOPREFIX, FOUND, NOTFOUND}, as Trie.find()
+     */
+    public Trie.SearchResult find(String s) {
+        int v = node(s);
+        if (v < 0) {
+            return Trie.SearchResult.NOPREFIX;
+        }
+        return isWord(v) ? Trie.SearchResult.FOUND
+                         : Trie.SearchResult.NOTFOUND;
+    }
+
+    /** Determine if a string is in the set.
+     * @param s The string (case insensitive)
+     * @return True if it is
+     */
+    public boolean contains(String s) {
+        int v = node(s);
+        return v >= 0 && isWord(v);
+    }
+
+    /** Determine if any string in the set starts with a prefix.
+     * @param s The prefix (case insensitive)
+     * @return True if one does
+     */
+    public boolean hasPrefix(String s) {
+        return node(s) >= 0;
+    }
+
+    /** Get the number of words.
+     * @return The number of words
+     */
+    public int size() {
+        return m_size;
+    }
+
+    /** Get the number of nodes.
+     * @return The number of nodes
+     */
+    public int numNodes() {
+        return numNodes;
+    }
+
+    /** Get the memory used by the arrays of this LoudsTrie.
+     * @return The size in bytes (not counting object headers)
+     */
+    public long sizeInBytes() {
+        return 8L * (louds.length + words.length) + labels.length
+               + 4L * (zeroSamples.length + zerosBefore.length
+                       + wordsBefore.length);
+    }
+
+    /** Measure the heap this LoudsTrie uses (see Footprint).  There are
+     * no node objects or child arrays, just the bitvectors and their
+     * indexes, and no strings at all.
+     * @return The footprint
+     */
+    public Footprint footprint() {
+        Footprint f = new Footprint("LoudsTrie");
+        f.words = m_size;
+        f.nodes = numNodes;
+        f.add("louds bits", Footprint.array(8, louds.length));
+        f.add("select index", Footprint.array(4, zeroSamples.length)
+                              + Footprint.array(4, zerosBefore.length));
+        f.add("labels", Footprint.array(1, labels.length));
+        f.add("word bits", Footprint.array(8, words.length));
+        f.add("rank index", Footprint.array(4, wordsBefore.length));
+        return f;
+    }
+
+    /** Report the size of a LoudsTrie for a word file and compare its
+     * solve time with the Trie's.
+     * Usage:  java LoudsTrie [wordFile [count]]
+     */
+    public static void main(String[] args) {
+        String file = (args.length > 0) ? args[0] : "american-english";
+        int count = (args.length > 1) ? Integer.parseInt(args[1]) : 1000;
+        LoudsTrie lt = load(file);
+        System.out.println(lt.size() + " words, " + lt.numNodes() +
+                           " nodes, " + lt.sizeInBytes() + " bytes (" +
+                           ((double) lt.sizeInBytes() / lt.size()) +
+                           " bytes per word)");
+
+        Trie trie = Board.loadDictionary(file);
+        Board[] boards = new Board[count];
+        for (int i = 0; i < count; ++i) {
+            boards[i] = new Board(i, trie);
+        }
+        long trieTime = 0;
+        long loudsTime = 0;
+        long triePts = 0;
+        long loudsPts = 0;
+        for (int round = 0; round < 2; ++round) {
+            trieTime = System.nanoTime();
+            triePts = 0;
+            for (Board b : boards) {
+                triePts += Board.countPoints(b.allWords());
+            }
+            trieTime = System.nanoTime() - trieTime;
+            loudsTime = System.nanoTime();
+            loudsPts = 0;
+            for (Board b : boards) {
+                loudsPts += Board.countPoints(b.allWords(lt));
+            }
+            loudsTime = System.nanoTime() - loudsTime;
+        }
+        System.out.println("trie:  " + (trieTime / 1000000) + " ms, " +
+                           triePts + " points");
+        System.out.println("louds: " + (loudsTime / 1000000) + " ms, " +
+                           loudsPts + " points");
+    }
+}
@@ -0,0 +1,478 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/** Counters for a long running solver process, in Prometheus' text format.
+ *
+ * Board counts its solves (by method, with a latency histogram and the
+ * bytes each solve allocated), the dictionary loaders count loads and
+ * report the dictionary's word ids, a lazily loaded Trie counts how often
+ * a search finds its bucket already built, and SolverContext.Pool reports
+ * how many contexts are free and in use.  serve() (or the
+ * boggle.metricsPort property, see serveIfAsked()) starts an HTTP server
+ * on the loopback interface that answers GET /metrics with all of them.
+ *
+ * Recording is on the solve path, so every count is a LongAdder (or
+ * DoubleAdder), which keeps a cell per contending thread instead of one
+ * shared word; a solve costs two nanoTime() calls and a few adds, and
+ * allocates nothing.  Allocation is only measured once the endpoint is
+ * up, since reading the JVM's per thread allocation counter needs the
+ * management classes, which are slow to load for a process that only
+ * solves one board.
+ */
+public class Metrics {
+    /** A count that only goes up */
+    public static class Counter {
+        /** The count */
+        private final LongAdder count = new LongAdder();
+
+        /** Add one. */
+        public void inc() {
+            count.increment();
+        }
+
+        /** Add to the count.
+         * @param n The amount to add
+         */
+        public void add(long n) {
+            count.add(n);
+        }
+
+        /** Get the count.
+         * @return The count
+         */
+        public long get() {
+            return count.sum();
+        }
+    }
+
+    /** A value that goes up and down */
+    public static class Gauge {
+        /** The value */
+        private final LongAdder value = new LongAdder();
+
+        /** Add to the value.
+         * @param n The amount to add (negative to subtract)
+         */
+        public void add(long n) {
+            value.add(n);
+        }
+
+        /** Set the value.  This is for occasional updates (e.g. a new
+         * dictionary); anything frequent should add().
+         * @param v The new value
+         */
+        public synchronized void set(long v) {
+            value.add(v - value.sum());
+        }
+
+        /** Get the value.
+         * @return The value
+         */
+        public long get() {
+            return value.sum();
+        }
+    }
+
+    /** A histogram of values (e.g. seconds) in fixed buckets */
+    public static class Histogram {
+        /** The upper bounds of the buckets, increasing */
+        private final double[] bounds;
+        /** counts[i] is the number of values in bucket i (the last is
+         * everything above the last bound)
+         */
+        private final LongAdder[] counts;
+        /** The sum of the values */
+        private final DoubleAdder sum = new DoubleAdder();
+
+        /** Create a Histogram.
+         * @param b The upper bounds of the buckets, increasing
+         */
+        public Histogram(double[] b) {
+            bounds = b;
+            counts = new LongAdder[b.length + 1];
+            for (int i = 0; i < counts.length; ++i) {
+                counts[i] = new LongAdder();
+            }
+        }
+
+        /** Count a value.
+         * @param v The value
+         */
+        public void observe(double v) {
+            int i = 0;
+            while (i < bounds.length && v > bounds[i]) {
+                ++i;
+            }
+            counts[i].increment();
+            sum.add(v);
+        }
+    }
+
+    /** The counts for one way of solving a board */
+    public static class Solve {
+        /** The number of solves */
+        private final Counter count = new Counter();
+        /** How long they took, in seconds */
+        private final Histogram seconds = new Histogram(SOLVE_BUCKETS);
+        /** The bytes they allocated */
+        private final Counter allocated = new Counter();
+
+        /** Count a solve.
+         * @param startNanos System.nanoTime() when it started
+         * @param startBytes allocated() when it started
+         */
+        public void stop(long startNanos, long startBytes) {
+            long bytes = allocated();
+            count.inc();
+            seconds.observe((System.nanoTime() - startNanos) / 1e9);
+            if (bytes > 0 && startBytes > 0) {
+                allocated.add(bytes - startBytes);
+            }
+        }
+    }
+
+    /** The bucket bounds for solve times, in seconds */
+    private static final double[] SOLVE_BUCKETS = {
+        0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05,
+        0.1, 0.25, 0.5, 1
+    };
+    /** The bucket bounds for dictionary load times, in seconds */
+    private static final double[] LOAD_BUCKETS = {
+        0.01, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30
+    };
+
+    /** One metric in the output:  the labels (e.g. {method="score"},
+     * or "" for none) and the Counter, Gauge or Histogram.
+     */
+    private static class Series {
+        final String labels;
+        final Object metric;
+
+        Series(String l, Object m) {
+            labels = l;
+            metric = m;
+        }
+    }
+
+    /** A metric name, with its help text, type and series */
+    private static class Family {
+        final String help;
+        final String type;
+        final List<Series> series = new ArrayList<Series>();
+
+        Family(String h, String t) {
+            help = h;
+            type = t;
+        }
+    }
+
+    /** Every metric, by name, in the order they were registered */
+    private static final Map<String, Family> FAMILIES =
+            new LinkedHashMap<String, Family>();
+
+    /** Dictionaries loaded from a file */
+    public static final Histogram DICTIONARY_LOADS = histogram(
+            "boggle_dictionary_load_seconds",
+            "Time to load a dictionary from a word file", "", LOAD_BUCKETS);
+    /** The word ids (Trie.idCount()) of the last dictionary loaded or
+     * published.  That isn't the number of words:  a word repeated in a
+     * lazily loaded file has an id of its own, and ids aren't reused, so
+     * deleting a word doesn't lower it.  (Trie.size() would be no better,
+     * since it counts repeats and would build all of a lazy Trie.)
+     */
+    public static final Gauge DICTIONARY_IDS = gauge(
+            "boggle_dictionary_word_ids",
+            "Word ids handed out by the last dictionary loaded or " +
+            "published (deleted words keep theirs)", "");
+    /** Searches that found their part of a lazy Trie already built */
+    public static final Counter LAZY_HITS = counter(
+            "boggle_lazy_bucket_lookups_total",
+            "Lookups of a lazily loaded Trie's buckets", "result=\"hit\"");
+    /** Searches that had to build their part of a lazy Trie */
+    public static final Counter LAZY_MISSES = counter(
+            "boggle_lazy_bucket_lookups_total", null, "result=\"miss\"");
+    /** Solver contexts waiting in a pool */
+    public static final Gauge CONTEXTS_FREE = gauge(
+            "boggle_solver_contexts",
+            "Solver contexts in pools, by state", "state=\"free\"");
+    /** Solver contexts taken from a pool and not given back */
+    public static final Gauge CONTEXTS_IN_USE = gauge(
+            "boggle_solver_contexts", null, "state=\"in_use\"");
+
+    /** Whether allocated() measures anything (once serve() is called) */
+    private static volatile boolean measureAllocation;
+
+    /** Register a metric.
+     * @param name The metric's name
+     * @param help Its help text, or null if the name has it already
+     * @param type "counter", "gauge" or "histogram"
+     * @param labels Its labels, e.g. method="score", or ""
+     * @param m The metric
+     */
+    private static synchronized void register(String name, String help,
+                                              String type, String labels,
+                                              Object m)
+    {
+        Family f = FAMILIES.get(name);
+        if (f == null) {
+            f = new Family(help, type);
+            FAMILIES.put(name, f);
+        }
+        f.series.add(new Series(labels, m));
+    }
+
+    /** Create and register a Counter.
+     * @param name The name (by convention ending in _total)
+     * @param help The help text, or null for a name that has one already
+     * @param labels The labels, e.g. method="score", or ""
+     * @return The Counter
+     */
+    public static Counter counter(String name, String help, String labels) {
+        Counter c = new Counter();
+        register(name, help, "counter", labels, c);
+        return c;
+    }
+
+    /** Create and register a Gauge.
+     * @param name The name
+     * @param help The help text, or null for a name that has one already
+     * @param labels The labels, or ""
+     * @return The Gauge
+     */
+    public static Gauge gauge(String name, String help, String labels) {
+        Gauge g = new Gauge();
+        register(name, help, "gauge", labels, g);
+        return g;
+    }
+
+    /** Create and register a Histogram.
+     * @param name The name
+     * @param help The help text, or null for a name that has one already
+     * @param labels The labels, or ""
+     * @param bounds The upper bounds of the buckets, increasing
+     * @return The Histogram
+     */
+    public static Histogram histogram(String name, String help,
+                                      String labels, double[] bounds)
+    {
+        Histogram h = new Histogram(bounds);
+        register(name, help, "histogram", labels, h);
+        return h;
+    }
+
+    /** Create and register the counts for a way of solving boards:
+     * boggle_solves_total, boggle_solve_seconds and
+     * boggle_solve_allocated_bytes_total, labelled with the method.
+     * @param method The method, e.g. "allWords"
+     * @return The Solve
+     */
+    public static synchronized Solve solve(String method) {
+        Solve s = new Solve();
+        String l = "method=\"" + method + "\"";
+        boolean first = !FAMILIES.containsKey("boggle_solves_total");
+        register("boggle_solves_total",
+                 first ? "Boards solved, by method" : null,
+                 "counter", l, s.count);
+        register("boggle_solve_seconds",
+                 first ? "Time to solve a board, by method" : null,
+                 "histogram", l, s.seconds);
+        register("boggle_solve_allocated_bytes_total",
+                 first ? "Bytes allocated by solves (once the metrics " +
+                         "endpoint is up), by method" : null,
+                 "counter", l, s.allocated);
+        return s;
+    }
+
+    /** Count a dictionary loaded from a file.
+     * @param t The dictionary
+     * @param startNanos System.nanoTime() when loading started
+     */
+    public static void loaded(Trie t, long startNanos) {
+        DICTIONARY_LOADS.observe((System.nanoTime() - startNanos) / 1e9);
+        DICTIONARY_IDS.set(t.idCount());
+    }
+
+    /** Get the bytes this thread has allocated so far.
+     * @return The bytes, or 0 if that isn't being measured (see the class
+     *         comment) or the JVM can't tell
+     */
+    public static long allocated() {
+        return measureAllocation ? Allocation.current() : 0;
+    }
+
+    /** The JVM's allocation counter, loaded on first use */
+    private static class Allocation {
+        /** The bean, or null if the JVM doesn't count allocation */
+        static final com.sun.management.ThreadMXBean BEAN = bean();
+
+        static com.sun.management.ThreadMXBean bean() {
+            Object b = ManagementFactory.getThreadMXBean();
+            if (!(b instanceof com.sun.management.ThreadMXBean)) {
+                return null;
+            }
+            com.sun.management.ThreadMXBean t =
+                    (com.sun.management.ThreadMXBean) b;
+            return t.isThreadAllocatedMemorySupported()
+                   && t.isThreadAllocatedMemoryEnabled() ? t : null;
+        }
+
+        static long current() {
+            return (BEAN == null) ? 0 : BEAN.getCurrentThreadAllocatedBytes();
+        }
+    }
+
+    /** Write every metric in Prometheus' text format (version 0.0.4).
+     * @param sb Where to write
+     */
+    public static synchronized void write(StringBuilder sb) {
+        for (Map.Entry<String, Family> e : FAMILIES.entrySet()) {
+            String name = e.getKey();
+            Family f = e.getValue();
+            sb.append("# HELP ").append(name).append(' ').append(f.help)
+              .append('\n');
+            sb.append("# TYPE ").append(name).append(' ').append(f.type)
+              .append('\n');
+            for (Series s : f.series) {
+                if (s.metric instanceof Counter) {
+                    sample(sb, name, s.labels, ((Counter) s.metric).get());
+                }
+                else if (s.metric instanceof Gauge) {
+                    sample(sb, name, s.labels, ((Gauge) s.metric).get());
+                }
+                else {
+                    Histogram h = (Histogram) s.metric;
+                    String sep = s.labels.isEmpty() ? "" : s.labels + ",";
+                    long total = 0;
+                    for (int i = 0; i < h.counts.length; ++i) {
+                        total += h.counts[i].sum();
+                        String le = (i < h.bounds.length)
+                                    ? Double.toString(h.bounds[i]) : "+Inf";
+                        sample(sb, name + "_bucket",
+                               sep + "le=\"" + le + "\"", total);
+                    }
+                    sample(sb, name + "_sum", s.labels, h.sum.sum());
+                    sample(sb, name + "_count", s.labels, total);
+                }
+            }
+        }
+    }
+
+    /** Write one sample line.
+     * @param sb Where to write
+     * @param name The name
+     * @param labels The labels, or ""
+     * @param v The value
+     */
+    private static void sample(StringBuilder sb, String name, String labels,
+                               Object v)
+    {
+        sb.append(name);
+        if (!labels.isEmpty()) {
+            sb.append('{').append(labels).append('}');
+        }
+        sb.append(' ').append(v).append('\n');
+    }
+
+    /** Serve the metrics at http://localhost:port/metrics (on the loopback
+     * interface only), on a daemon thread.  This also turns on measuring
+     * allocation.
+     * @param port The port, or 0 for any free one
+     * @return The server (getAddress() has the port; stop() stops it)
+     * @throws IOException If the port can't be bound
+     */
+    public static HttpServer serve(int port) throws IOException {
+        measureAllocation = true;
+        HttpServer server = HttpServer.create(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), port),
+                0);
+        server.createContext("/metrics", new HttpHandler() {
+            public void handle(HttpExchange ex) throws IOException {
+                StringBuilder sb = new StringBuilder();
+                write(sb);
+                byte[] body = sb.toString().getBytes(StandardCharsets.UTF_8);
+                ex.getResponseHeaders().set("Content-Type",
+                        "text/plain; version=0.0.4; charset=utf-8");
+                ex.sendResponseHeaders(200, body.length);
+                OutputStream out = ex.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        //started from a daemon thread, the server's own thread is a
+        //daemon too, so it doesn't keep the process alive
+        Thread t = new Thread(new Runnable() {
+            public void run() {
+                server.start();
+            }
+        }, "Metrics");
+        t.setDaemon(true);
+        t.start();
+        return server;
+    }
+
+    /** Start the endpoint if the boggle.metricsPort property is set, for
+     * the mains of long running processes.
+     * @return The server, or null if the property isn't set or the port
+     *         can't be bound (which is reported on stderr)
+     */
+    public static HttpServer serveIfAsked() {
+        String port = System.getProperty("boggle.metricsPort");
+        if (port == null) {
+            return null;
+        }
+        try {
+            HttpServer s = serve(Integer.parseInt(port));
+            System.err.println("metrics at http://localhost:" +
+                               s.getAddress().getPort() + "/metrics");
+            return s;
+        }
+        catch (IOException | NumberFormatException e) {
+            System.err.println("can't serve metrics on port " + port +
+                               " (" + e + ")");
+            return null;
+        }
+    }
+
+    /** A small long running solver:  serve the metrics and solve boards
+     * until killed, with SolverContexts from a pool, so there is
+     * something to scrape.
+     * Usage:  java Metrics [port [threads]]
+     */
+    public static void main(String[] args) throws IOException {
+        int port = (args.length > 0) ? Integer.parseInt(args[0]) : 9464;
+        int threads = (args.length > 1) ? Integer.parseInt(args[1]) : 1;
+        final Trie dictionary = Trie.loadLazy("american-english");
+        final SolverContext.Pool pool = new SolverContext.Pool(dictionary);
+        HttpServer s = serve(port);
+        System.out.println("metrics at http://localhost:" +
+                           s.getAddress().getPort() + "/metrics");
+        for (int i = 0; i < threads; ++i) {
+            final long first = i * (1L << 40);
+            new Thread(new Runnable() {
+                public void run() {
+                    Board b = new Board(first, dictionary);
+                    for (long seed = first; true; ++seed) {
+                        SolverContext ctx = pool.take();
+                        b.reroll(seed);
+                        b.allPaths(ctx);
+                        b.score(ctx);
+                        pool.give(ctx);
+                    }
+                }
+            }, "Metrics solver " + i).start();
+        }
+    }
+}
@@ -17,11 +17,24 @@ public class OnePlayer {
             b = new Board();
         }
         System.out.println(b);
-        Queue<String> q = b.allWords();
+        // 1st argument, if present, is a time budget for the search in
+        // milliseconds.  The words found before it runs out are printed.
+        Queue<String> q;
+        boolean complete = true;
+        if (args.length > 1) {
+            Board.Result res = 
+                    b.allWords(Board.Deadline.after(Long.parseLong(args[1])));
+            q = res.words;
+            complete = res.complete;
+        }
+        else {
+            q = b.solve();
+        }
         for (String s : q) {
             System.out.println(s);
         }
-        System.out.println(Board.countPoints(q) + " points");
+        System.out.println(Board.countPoints(q) + " points" +
+                           (complete ? "" : " (out of time)"));
         time = System.currentTimeMillis() - time;
         System.out.println((time / 1000.0) + " seconds");
     }
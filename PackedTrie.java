@@ -0,0 +1,405 @@
+import java.util.Arrays;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/** A read only copy of a Trie, packed into one int array.
+ *
+ * A Trie's nodes are wherever the allocator put them, which is roughly
+ * insertion order, so the prefixes a search spends its time in are spread
+ * over the whole heap.  A PackedTrie stores node v as three ints at
+ * nodes[3v, 3v + 3):  the child mask, the index of the first child and
+ * the word id (-1 if v isn't a word).  The children of a node are
+ * contiguous and in letter order, so the child for a letter is the first
+ * child plus the number of lower letters in the mask.
+ *
+ * The order of the sibling groups is the layout.  from() lays them out
+ * breadth first.  relayout() takes visit counts (see startProfile()) and
+ * places the hottest groups first, each group as soon as its parent has
+ * been placed, so the nodes a typical search touches end up packed into a
+ * few kilobytes at the front of the array.  save() and load() keep a
+ * layout, so it only has to be profiled once.
+ *
+ * Nodes are numbered by their position, and 0 is the root.  An iterator
+ * is just a node number, as with LoudsTrie.
+ */
+public class PackedTrie {
+    /** Marks a layout file */
+    private static final int MAGIC = 0x504b5452;
+
+    /** Three ints per node:  child mask, first child, word id */
+    private int[] nodes;
+    /** The words, by id (see Trie.wordId()); null for unused ids */
+    private String[] words;
+    /** Visit counts by node, while profiling (else null) */
+    private int[] hits;
+
+    /** Create a PackedTrie from its arrays.
+     * @param n The nodes
+     * @param w The words
+     */
+    private PackedTrie(int[] n, String[] w) {
+        nodes = n;
+        words = w;
+    }
+
+    /** Pack a Trie, breadth first.
+     * Words keep their ids from the Trie, and are returned as the Trie's
+     * toString() would return them (see Trie.enqueue(Queue)).
+     * @param t The Trie, which must be English:  child() and the layout
+     *          file both take letter i to be 'A' + i
+     * @return The PackedTrie
+     * @throws IllegalArgumentException If t isn't in Alphabet.ENGLISH
+     */
+    public static PackedTrie from(Trie t) {
+        if (t.alphabet() != Alphabet.ENGLISH) {
+            throw new IllegalArgumentException("a PackedTrie is English "
+                                               + "only");
+        }
+        int width = Alphabet.ENGLISH.size();
+        String[] w = new String[t.idCount()];
+        int[] n = new int[3 * 1024];
+        ArrayDeque<Trie.SearchIterator> queue =
+                new ArrayDeque<Trie.SearchIterator>();
+        int v = 0;
+        int next = 1;   //where the next sibling group goes
+
+        queue.add(t.beginSearch());
+        while (!queue.isEmpty()) {
+            Trie.SearchIterator it = queue.poll();
+            int mask = it.childMask();
+            if (3 * next + 3 * width > n.length) {
+                n = Arrays.copyOf(n, n.length * 2);
+            }
+            n[3*v] = mask;
+            n[3*v + 1] = next;
+            n[3*v + 2] = -1;
+            if (it.inSet()) {
+                n[3*v + 2] = it.wordId();
+                w[it.wordId()] = it.toString();
+            }
+            for (int i = 0; i < width; ++i) {
+                if ((mask & (1 << i)) != 0) {
+                    Trie.SearchIterator c = new Trie.SearchIterator(it);
+                    c.next(Alphabet.ENGLISH.letter(i));
+                    queue.add(c);
+                    ++next;
+                }
+            }
+            ++v;
+        }
+        return new PackedTrie(Arrays.copyOf(n, 3 * v), w);
+    }
+
+    /** Get the root node.
+     * @return The root
+     */
+    public int root() {
+        return 0;
+    }
+
+    /** Get the child of a node by letter.
+     * @param v The node
+     * @param c The letter (uppercase)
+     * @return The child, or -1 if there is none
+     */
+    public int child(int v, char c) {
+        int mask = nodes[3*v];
+        int bit = 1 << (c - 'A');
+        if ((mask & bit) == 0) {
+            return -1;
+        }
+        int u = nodes[3*v + 1] + Integer.bitCount(mask & (bit - 1));
+        if (hits != null) {
+            ++hits[u];
+        }
+        return u;
+    }
+
+    /** Get the id of the word at a node.
+     * @param v The node
+     * @return The id, or -1 if v isn't a word
+     */
+    public int wordId(int v) {
+        return nodes[3*v + 2];
+    }
+
+    /** Get a word by id.
+     * @param id The id
+     * @return The word
+     */
+    public String word(int id) {
+        return words[id];
+    }
+
+    /** Get the number of ids (see Trie.idCount()).
+     * @return The number of ids
+     */
+    public int idCount() {
+        return words.length;
+    }
+
+    /** Get the number of nodes.
+     * @return The number of nodes
+     */
+    public int numNodes() {
+        return nodes.length / 3;
+    }
+
+    /** Measure the heap this PackedTrie uses (see Footprint).
+     * @return The footprint
+     */
+    public Footprint footprint() {
+        Footprint f = new Footprint("PackedTrie");
+        f.nodes = numNodes();
+        f.add("nodes", Footprint.array(4, nodes.length));
+        f.add("word table", Footprint.array(Footprint.REF, words.length));
+        f.slots = words.length;
+        for (String s : words) {
+            if (s != null) {
+                ++f.words;
+                ++f.filled;
+                f.addString(s);
+            }
+        }
+        return f;
+    }
+
+    /** Start counting how often each node is visited by child(). */
+    public void startProfile() {
+        hits = new int[numNodes()];
+    }
+
+    /** Stop counting visits.
+     * @return The visit counts by node since startProfile()
+     */
+    public int[] stopProfile() {
+        int[] h = hits;
+        hits = null;
+        return h;
+    }
+
+    /** Lay this PackedTrie out again, hottest sibling groups first.
+     * The visited groups are placed depth first, hottest child group
+     * first, so a group is usually right after its parent's and the path
+     * a search takes down the Trie stays within a few cache lines.  The
+     * groups the profile never visited go after them, breadth first.
+     * @param counts Visit counts by node, from stopProfile()
+     * @return The new PackedTrie (this one is unchanged)
+     */
+    public PackedTrie relayout(final int[] counts) {
+        int n = numNodes();
+        int[] where = new int[n];   //new position by old position
+        final long[] weight = new long[n];
+        ArrayDeque<Integer> hot = new ArrayDeque<Integer>();
+        ArrayDeque<Integer> cold = new ArrayDeque<Integer>();
+        Integer[] kids = new Integer[26];
+        int next = 1;
+
+        where[0] = 0;
+        if (nodes[0] != 0) {
+            hot.push(0);
+        }
+        while (!hot.isEmpty() || !cold.isEmpty()) {
+            //place the children of p
+            int p = !hot.isEmpty() ? hot.pop() : cold.poll();
+            int first = nodes[3*p + 1];
+            int k = Integer.bitCount(nodes[3*p]);
+            int nk = 0;
+            for (int j = 0; j < k; ++j) {
+                int c = first + j;
+                where[c] = next++;
+                if (nodes[3*c] == 0) {
+                    continue;
+                }
+                //a group is as hot as its visits put together
+                int cf = nodes[3*c + 1];
+                int ck = Integer.bitCount(nodes[3*c]);
+                for (int i = 0; i < ck; ++i) {
+                    weight[c] += counts[cf + i];
+                }
+                if (weight[c] == 0) {
+                    cold.add(c);
+                }
+                else {
+                    kids[nk++] = c;
+                }
+            }
+            //coldest pushed first, so the hottest comes off the stack next
+            Arrays.sort(kids, 0, nk, new Comparator<Integer>() {
+                public int compare(Integer a, Integer b) {
+                    return Long.compare(weight[a], weight[b]);
+                }
+            });
+            for (int j = 0; j < nk; ++j) {
+                hot.push(kids[j]);
+            }
+        }
+        int[] m = new int[nodes.length];
+        for (int v = 0; v < n; ++v) {
+            int u = where[v];
+            m[3*u] = nodes[3*v];
+            m[3*u + 1] = (nodes[3*v] != 0) ? where[nodes[3*v + 1]] : 0;
+            m[3*u + 2] = nodes[3*v + 2];
+        }
+        return new PackedTrie(m, words);
+    }
+
+    /** Save this PackedTrie, layout and all.
+     * @param filename The file to write
+     * @throws IOException If the file can't be written
+     */
+    public void save(String filename) throws IOException {
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(filename)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(nodes.length);
+            for (int x : nodes) {
+                out.writeInt(x);
+            }
+            out.writeInt(words.length);
+            for (String s : words) {
+                out.writeBoolean(s != null);
+                if (s != null) {
+                    out.writeUTF(s);
+                }
+            }
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    /** Load a PackedTrie written by save().
+     * @param filename The file to read
+     * @return The PackedTrie
+     * @throws IOException If the file can't be read or isn't a layout
+     */
+    public static PackedTrie load(String filename) throws IOException {
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(filename)));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(filename + " is not a PackedTrie");
+            }
+            int[] n = new int[in.readInt()];
+            for (int i = 0; i < n.length; ++i) {
+                n[i] = in.readInt();
+            }
+            String[] w = new String[in.readInt()];
+            for (int i = 0; i < w.length; ++i) {
+                if (in.readBoolean()) {
+                    w[i] = in.readUTF();
+                }
+            }
+            return new PackedTrie(n, w);
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /** Count the 64 byte cache lines of nodes[] that a set of visit
+     * counts touches.
+     * @param counts Visit counts by node
+     * @return The number of lines with a visited node
+     */
+    private static int linesTouched(int[] counts) {
+        int lines = 0;
+        int last = -1;
+        for (int v = 0; v < counts.length; ++v) {
+            int line = (12 * v) >>> 6;
+            if (counts[v] != 0 && line != last) {
+                ++lines;
+                last = line;
+            }
+        }
+        return lines;
+    }
+
+    /** Solve some boards with a PackedTrie.
+     * @param p The PackedTrie
+     * @param boards The boards
+     * @return The total points
+     */
+    private static long solve(PackedTrie p, Board[] boards) {
+        long pts = 0;
+        for (Board b : boards) {
+            pts += Board.countPoints(b.allWords(p));
+        }
+        return pts;
+    }
+
+    /** Profile a layout on a sample of boards, save it, and compare solve
+     * times and cache lines touched for the Trie, the breadth first
+     * layout and the profiled one (loaded back from the file).
+     * Usage:  java PackedTrie [layoutFile [count [sample]]]
+     * The boards solved are seeds [0, count); the profile uses seeds
+     * [count, count + sample), so it isn't tuned to the boards it's
+     * measured on.
+     */
+    public static void main(String[] args) throws IOException {
+        String file = (args.length > 0) ? args[0] : "american-english.packed";
+        int count = (args.length > 1) ? Integer.parseInt(args[1]) : 1000;
+        int sample = (args.length > 2) ? Integer.parseInt(args[2]) : 200;
+        Trie trie = Board.loadDictionary("american-english");
+        PackedTrie bfs = from(trie);
+
+        bfs.startProfile();
+        for (int i = 0; i < sample; ++i) {
+            new Board(count + i, trie).allWords(bfs);
+        }
+        bfs.relayout(bfs.stopProfile()).save(file);
+        PackedTrie hot = load(file);
+
+        Board[] boards = new Board[count];
+        for (int i = 0; i < count; ++i) {
+            boards[i] = new Board(i, trie);
+        }
+        //cache lines touched per board, averaged over the first 100
+        long bfsLines = 0;
+        long hotLines = 0;
+        int measured = Math.min(count, 100);
+        for (int i = 0; i < measured; ++i) {
+            bfs.startProfile();
+            boards[i].allWords(bfs);
+            bfsLines += linesTouched(bfs.stopProfile());
+            hot.startProfile();
+            boards[i].allWords(hot);
+            hotLines += linesTouched(hot.stopProfile());
+        }
+
+        long[] time = new long[3];
+        long[] pts = new long[3];
+        for (int round = 0; round < 2; ++round) {
+            time[0] = System.nanoTime();
+            pts[0] = 0;
+            for (Board b : boards) {
+                pts[0] += Board.countPoints(b.allWords());
+            }
+            time[0] = System.nanoTime() - time[0];
+            time[1] = System.nanoTime();
+            pts[1] = solve(bfs, boards);
+            time[1] = System.nanoTime() - time[1];
+            time[2] = System.nanoTime();
+            pts[2] = solve(hot, boards);
+            time[2] = System.nanoTime() - time[2];
+        }
+        System.out.println(bfs.numNodes() + " nodes, layout saved to " + file);
+        System.out.println("trie:     " + (time[0] / 1000000) + " ms, " +
+                           pts[0] + " points");
+        System.out.println("bfs:      " + (time[1] / 1000000) + " ms, " +
+                           pts[1] + " points, " + (bfsLines / measured) +
+                           " lines per board");
+        System.out.println("profiled: " + (time[2] / 1000000) + " ms, " +
+                           pts[2] + " points, " + (hotLines / measured) +
+                           " lines per board");
+    }
+}
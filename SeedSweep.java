@@ -0,0 +1,343 @@
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.io.PrintStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/** Statistics over a large range of seeds, in one JVM.
+ *
+ * The seeds are handed out to threads in chunks.  Each thread solves its
+ * boards with Board.score(long[]) (no Strings) and counts into its own
+ * Stats:  a histogram of scores, a histogram of words per board, and the
+ * number of boards each word id was on.  Nothing is shared while boards
+ * are being solved; the threads only touch shared counters once per
+ * chunk, to report progress, and their Stats are merged at the end.  The
+ * result doesn't depend on the number of threads.
+ */
+public class SeedSweep {
+    /** The seeds a thread takes at a time */
+    private static final int CHUNK = 256;
+
+    /** The counts for a set of boards */
+    public static class Stats {
+        /** The number of boards */
+        public long boards;
+        /** The total points */
+        public long points;
+        /** scores[p] is the number of boards worth p points */
+        public long[] scores = new long[256];
+        /** words[n] is the number of boards with n words */
+        public long[] words = new long[256];
+        /** counts[id] is the number of boards with word id on them.  Ids
+         * are the dictionary's, so Stats only merge with Stats made with
+         * the same dictionary, loaded the same way (see Trie.idCount()).
+         */
+        public long[] counts;
+
+        /** Create empty Stats.
+         * @param ids The number of word ids (see Trie.idCount())
+         */
+        public Stats(int ids) {
+            counts = new long[ids];
+        }
+
+        /** Count a board.
+         * @param pts The board's points
+         * @param seen The ids of the board's words, as a bitset.  This
+         *             is cleared, ready for the next board.
+         */
+        public void add(int pts, long[] seen) {
+            int n = 0;
+            for (int w = 0; w < seen.length; ++w) {
+                long bits = seen[w];
+                seen[w] = 0;
+                while (bits != 0) {
+                    ++counts[(w << 6) + Long.numberOfTrailingZeros(bits)];
+                    bits &= bits - 1;
+                    ++n;
+                }
+            }
+            ++boards;
+            points += pts;
+            scores = increment(scores, pts, 1);
+            words = increment(words, n, 1);
+        }
+
+        /** Add another set of counts to these.
+         * @param s The other counts
+         */
+        public void merge(Stats s) {
+            boards += s.boards;
+            points += s.points;
+            for (int i = s.scores.length - 1; i >= 0; --i) {
+                scores = increment(scores, i, s.scores[i]);
+            }
+            for (int i = s.words.length - 1; i >= 0; --i) {
+                words = increment(words, i, s.words[i]);
+            }
+            for (int i = 0; i < counts.length; ++i) {
+                counts[i] += s.counts[i];
+            }
+        }
+
+        /** Add to a histogram bucket, growing the histogram if need be.
+         * @param h The histogram
+         * @param i The bucket
+         * @param by The amount to add
+         * @return The histogram (a new array if it grew)
+         */
+        private static long[] increment(long[] h, int i, long by) {
+            if (i >= h.length) {
+                h = Arrays.copyOf(h, Math.max(2 * h.length, i + 1));
+            }
+            h[i] += by;
+            return h;
+        }
+
+        /** Send these counts (see SweepWorker).  Only the words that were
+         * on some board are sent.
+         * @param out Where to write
+         * @throws IOException If it can't be written
+         */
+        public void write(DataOutputStream out) throws IOException {
+            out.writeLong(boards);
+            out.writeLong(points);
+            writeHistogram(out, scores);
+            writeHistogram(out, words);
+            int n = 0;
+            for (long c : counts) {
+                n += (c != 0) ? 1 : 0;
+            }
+            out.writeInt(n);
+            for (int i = 0; i < counts.length; ++i) {
+                if (counts[i] != 0) {
+                    out.writeInt(i);
+                    out.writeLong(counts[i]);
+                }
+            }
+        }
+
+        /** Read counts sent by write().
+         * @param in Where to read
+         * @param ids The number of word ids
+         * @return The counts
+         * @throws IOException If they can't be read
+         */
+        public static Stats read(DataInputStream in, int ids)
+                throws IOException
+        {
+            Stats s = new Stats(ids);
+            s.boards = in.readLong();
+            s.points = in.readLong();
+            s.scores = readHistogram(in);
+            s.words = readHistogram(in);
+            for (int n = in.readInt(); n > 0; --n) {
+                int id = in.readInt();
+                if (id < 0 || id >= ids) {
+                    throw new IOException("bad word id " + id);
+                }
+                s.counts[id] = in.readLong();
+            }
+            return s;
+        }
+
+        /** Write a histogram.
+         * @param out Where to write
+         * @param h The histogram
+         * @throws IOException If it can't be written
+         */
+        private static void writeHistogram(DataOutputStream out, long[] h)
+                throws IOException
+        {
+            out.writeInt(h.length);
+            for (long x : h) {
+                out.writeLong(x);
+            }
+        }
+
+        /** Read a histogram written by writeHistogram().
+         * @param in Where to read
+         * @return The histogram
+         * @throws IOException If it can't be read
+         */
+        private static long[] readHistogram(DataInputStream in)
+                throws IOException
+        {
+            int n = in.readInt();
+            if (n < 0 || n > (1 << 20)) {
+                throw new IOException("bad histogram size " + n);
+            }
+            long[] h = new long[n];
+            for (int i = 0; i < n; ++i) {
+                h[i] = in.readLong();
+            }
+            return h;
+        }
+
+        /** Print the statistics:  a summary line, the two histograms
+         * ("value boards" per line, empty buckets left out) and the words
+         * by the number of boards they were on, most first.  A word that
+         * has since been deleted from dict (e.g. a version of a Dictionary
+         * that changed during the sweep) is printed as "#id" instead.
+         * @param out Where to print
+         * @param dict The dictionary the boards used
+         */
+        public void print(PrintStream out, Trie dict) {
+            out.println("# " + boards + " boards, " + points + " points, " +
+                        ((boards == 0) ? 0 : (double) points / boards) +
+                        " points per board");
+            out.println("# points");
+            printHistogram(out, scores);
+            out.println("# words per board");
+            printHistogram(out, words);
+            out.println("# boards per word");
+            Integer[] ids = new Integer[counts.length];
+            int n = 0;
+            for (int i = 0; i < counts.length; ++i) {
+                if (counts[i] != 0) {
+                    ids[n++] = i;
+                }
+            }
+            Arrays.sort(ids, 0, n, new Comparator<Integer>() {
+                public int compare(Integer a, Integer b) {
+                    if (counts[a] != counts[b]) {
+                        return (counts[a] > counts[b]) ? -1 : 1;
+                    }
+                    return a.compareTo(b);
+                }
+            });
+            for (int i = 0; i < n; ++i) {
+                String w = dict.word(ids[i]);
+                out.println(((w == null) ? "#" + ids[i] : w) + " "
+                            + counts[ids[i]]);
+            }
+        }
+
+        /** Print the non-empty buckets of a histogram.
+         * @param out Where to print
+         * @param h The histogram
+         */
+        private static void printHistogram(PrintStream out, long[] h) {
+            for (int i = 0; i < h.length; ++i) {
+                if (h[i] != 0) {
+                    out.println(i + " " + h[i]);
+                }
+            }
+        }
+    }
+
+    /** The dictionary */
+    private Trie dictionary;
+    /** The number of threads */
+    private int threads;
+
+    /** Create a SeedSweep.
+     * @param dict The dictionary
+     * @param numthreads The number of threads to solve boards on
+     */
+    public SeedSweep(Trie dict, int numthreads) {
+        dictionary = dict;
+        threads = numthreads;
+    }
+
+    /** Solve a range of seeds and count them up.
+     * @param first The first seed
+     * @param count The number of seeds
+     * @param interval How often to print progress, in milliseconds
+     * @param progress Where to print progress, or null for nowhere
+     * @return The counts for the boards [first, first + count)
+     */
+    public Stats run(final long first, final long count, long interval,
+                     PrintStream progress)
+    {
+        final AtomicLong next = new AtomicLong(0);
+        final AtomicLong done = new AtomicLong(0);
+        final AtomicLong points = new AtomicLong(0);
+        final int ids = dictionary.idCount();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<Stats>> parts = new ArrayList<Future<Stats>>();
+
+        for (int t = 0; t < threads; ++t) {
+            parts.add(pool.submit(new Callable<Stats>() {
+                public Stats call() {
+                    Stats s = new Stats(ids);
+                    long[] seen = new long[(ids + 63) / 64];
+                    Board b = new Board(first, dictionary);
+                    long i;
+                    while ((i = next.getAndAdd(CHUNK)) < count) {
+                        long end = Math.min(i + CHUNK, count);
+                        long boards = s.boards;
+                        long pts = s.points;
+                        for (; i < end; ++i) {
+                            b.reroll(first + i);
+                            s.add(b.score(seen), seen);
+                        }
+                        points.addAndGet(s.points - pts);
+                        done.addAndGet(s.boards - boards);
+                    }
+                    return s;
+                }
+            }));
+        }
+        pool.shutdown();
+        long start = System.nanoTime();
+        try {
+            while (!pool.awaitTermination(interval, TimeUnit.MILLISECONDS)) {
+                if (progress != null) {
+                    long d = done.get();
+                    double secs = (System.nanoTime() - start) / 1e9;
+                    progress.println(d + " of " + count + " boards, " +
+                                     (long) (d / secs) + " per second, " +
+                                     ((d == 0) ? 0 : points.get() / d) +
+                                     " points per board so far");
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            pool.shutdownNow();
+            throw new IllegalStateException(e);
+        }
+
+        Stats total = new Stats(ids);
+        for (Future<Stats> f : parts) {
+            try {
+                total.merge(f.get());
+            }
+            catch (InterruptedException | ExecutionException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return total;
+    }
+
+    /** Sweep a range of seeds and print the statistics.
+     * Usage:  java SeedSweep firstSeed count [threads [intervalSeconds]]
+     * Progress goes to stderr and the statistics to stdout.
+     */
+    public static void main(String[] args) {
+        long first = Long.parseLong(args[0]);
+        long count = Long.parseLong(args[1]);
+        int threads = (args.length > 2) ? Integer.parseInt(args[2])
+                      : Runtime.getRuntime().availableProcessors();
+        long interval = (args.length > 3) ? Long.parseLong(args[3]) : 10;
+        Metrics.serveIfAsked();
+        Trie dictionary = Board.loadDictionary("american-english");
+
+        long time = System.currentTimeMillis();
+        Stats s = new SeedSweep(dictionary, threads)
+                .run(first, count, interval * 1000, System.err);
+        time = System.currentTimeMillis() - time;
+        s.print(System.out, dictionary);
+        System.err.println((time / 1000.0) + " seconds");
+    }
+}
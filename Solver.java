@@ -0,0 +1,477 @@
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Queue;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ExecutionException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/** Solves boards in whichever way is fastest on this machine.
+ *
+ * Whether the threaded search wins depends on the number of cores, the
+ * dictionary and the JVM, so rather than guessing, a Solver times the
+ * options when it is created, and then picks one for each call:
+ * <ul>
+ *  <li> For one board:  SERIAL (Board.allWords()) or PARALLEL
+ *       (Board.getWords(threads)), whichever had the lowest latency.
+ *       </li>
+ *  <li> For a list of boards:  SERIAL (allWords() on each in turn) or
+ *       BATCH (the boards split between threads, each solving its share
+ *       with one BoardBatch).  Each of these (a Plan) is timed on a
+ *       short and a long list, which gives its cost as a fixed part
+ *       (starting threads, building the batch) plus a part per board,
+ *       and each call takes the Plan that is cheapest for its number of
+ *       boards.  So a few boards are solved serially and a lot of them
+ *       in batches, wherever the crossover is on this machine. </li>
+ * </ul>
+ * The timings (the profile) can be saved to a file and read back, so
+ * only the first run on a machine pays for the calibration.  A saved
+ * profile is only used if it was made with the same number of cores
+ * and the same size of dictionary.
+ */
+public class Solver {
+    /** The ways of solving */
+    public static enum Mode {
+        SERIAL,
+        PARALLEL,
+        BATCH
+    }
+
+    /** The seeds of the boards used to calibrate */
+    private static final long CALIBRATION_SEED = 1L << 32;
+    /** How many boards to time the single board modes on */
+    private static final int SINGLE_BOARDS = 40;
+    /** How many boards to time the many board modes on */
+    private static final int MANY_BOARDS = 400;
+    /** How many boards are in each short list the many board modes are
+     * timed on, to find their fixed cost (divides MANY_BOARDS) */
+    private static final int FEW_BOARDS = 10;
+
+    /** A way of solving a list of boards, and what it costs. */
+    private static class Plan {
+        /** SERIAL or BATCH */
+        Mode mode;
+        /** The threads for BATCH */
+        int threads;
+        /** The cost of a call apart from the boards, in nanoseconds */
+        long fixed;
+        /** The cost of each board, in nanoseconds */
+        long each;
+
+        /** Construct a Plan.
+         * @param m The mode
+         * @param t The threads
+         * @param f The fixed cost
+         * @param e The cost per board
+         */
+        Plan(Mode m, int t, long f, long e) {
+            mode = m;
+            threads = t;
+            fixed = f;
+            each = e;
+        }
+
+        /** Estimate the time to solve some boards.
+         * @param boards How many
+         * @return The time, in nanoseconds
+         */
+        long cost(int boards) {
+            return fixed + each * boards;
+        }
+
+        /** Describe the Plan.
+         * @return e.g. "BATCH x8"
+         */
+        public String toString() {
+            return mode + " x" + threads;
+        }
+    }
+
+    /** The dictionary */
+    private Trie dictionary;
+    /** The mode for solve(Board) */
+    private Mode single;
+    /** The threads for solve(Board) */
+    private int single_threads;
+    /** The ways of solving a list, one of which solve(List) picks */
+    private List<Plan> plans;
+    /** The threads for BATCH, made on first use (and kept) */
+    private ExecutorService pool;
+
+    /** Create a Solver, reading the profile from a file if it is there
+     * and matches this machine, or else calibrating and saving it there.
+     * @param dict The dictionary
+     * @param profile The profile file, or null to always calibrate
+     */
+    public Solver(Trie dict, String profile) {
+        dictionary = dict;
+        if (profile == null || !load(profile)) {
+            calibrate();
+            if (profile != null) {
+                save(profile);
+            }
+        }
+    }
+
+    /** Create a Solver with a fixed choice (no calibration).
+     * @param dict The dictionary
+     * @param single The mode for one board, SERIAL or PARALLEL
+     * @param singleThreads The threads for one board
+     * @param many The mode for lists of boards, SERIAL or BATCH
+     * @param manyThreads The threads for lists of boards
+     */
+    public Solver(Trie dict, Mode single, int singleThreads,
+                  Mode many, int manyThreads)
+    {
+        dictionary = dict;
+        this.single = single;
+        single_threads = singleThreads;
+        plans = new ArrayList<Plan>();
+        plans.add(new Plan(many, manyThreads, 0, 0));
+    }
+
+    /** Find the words on a board.  The board must use this Solver's
+     * dictionary.
+     * @param b The board
+     * @return The words, as from Board.allWords()
+     */
+    public Queue<String> solve(Board b) {
+        return solve(b, single, single_threads);
+    }
+
+    /** Find the words on many boards, in whichever way should be
+     * fastest for that many.  The boards must use this Solver's
+     * dictionary.
+     * @param boards The boards
+     * @return The words on each board, as from Board.allWords()
+     */
+    public List<Queue<String>> solve(List<Board> boards) {
+        if (boards.size() == 1) {
+            List<Queue<String>> words = new ArrayList<Queue<String>>();
+            words.add(solve(boards.get(0)));
+            return words;
+        }
+        Plan p = plan(boards.size());
+        return solve(boards, p.mode, p.threads);
+    }
+
+    /** Pick the cheapest way to solve some boards.
+     * @param boards How many
+     * @return The Plan
+     */
+    private Plan plan(int boards) {
+        Plan best = null;
+        for (Plan p : plans) {
+            if (best == null || p.cost(boards) < best.cost(boards)) {
+                best = p;
+            }
+        }
+        return best;
+    }
+
+    /** Solve a board in a given mode.
+     * @param b The board
+     * @param mode SERIAL or PARALLEL
+     * @param threads The threads for PARALLEL
+     * @return The words
+     */
+    private static Queue<String> solve(Board b, Mode mode, int threads) {
+        return (mode == Mode.PARALLEL) ? b.getWords(threads) : b.allWords();
+    }
+
+    /** Solve boards in a given mode.
+     * @param boards The boards
+     * @param mode SERIAL or BATCH
+     * @param threads The threads for BATCH
+     * @return The words on each board
+     */
+    private List<Queue<String>> solve(List<Board> boards, Mode mode,
+                                      int threads)
+    {
+        if (mode == Mode.SERIAL || boards.size() < 2) {
+            List<Queue<String>> words = new ArrayList<Queue<String>>();
+            for (Board b : boards) {
+                words.add(b.allWords());
+            }
+            return words;
+        }
+        int n = boards.size();
+        threads = Math.min(threads, n);
+        if (threads == 1) {
+            return new BoardBatch(dictionary, boards).allWords();
+        }
+        //one contiguous share per thread, so the results stay in order
+        List<Future<List<Queue<String>>>> parts =
+                new ArrayList<Future<List<Queue<String>>>>();
+        for (int t = 0; t < threads; ++t) {
+            final List<Board> share =
+                    boards.subList(n * t / threads, n * (t + 1) / threads);
+            parts.add(pool().submit(new Callable<List<Queue<String>>>() {
+                public List<Queue<String>> call() {
+                    return new BoardBatch(dictionary, share).allWords();
+                }
+            }));
+        }
+        List<Queue<String>> words = new ArrayList<Queue<String>>(n);
+        for (Future<List<Queue<String>>> f : parts) {
+            for (boolean done = false; !done;) {
+                try {
+                    words.addAll(f.get());
+                    done = true;
+                }
+                catch (InterruptedException e) {
+                    //do nothing... just try again.
+                }
+                catch (ExecutionException e) {
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+        }
+        return words;
+    }
+
+    /** Get the thread pool (one thread per core), making it if need be.
+     * @return The pool
+     */
+    private synchronized ExecutorService pool() {
+        if (pool == null) {
+            int cores = Runtime.getRuntime().availableProcessors();
+            pool = Executors.newFixedThreadPool(cores, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "Solver");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return pool;
+    }
+
+    /** Time solving some boards one at a time.
+     * @param boards The boards
+     * @param mode The mode
+     * @param threads The threads
+     * @return The best time for the boards, in nanoseconds
+     */
+    private long timeSingle(List<Board> boards, Mode mode, int threads) {
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < 3; ++round) {
+            long t = System.nanoTime();
+            for (Board b : boards) {
+                solve(b, mode, threads);
+            }
+            best = Math.min(best, System.nanoTime() - t);
+        }
+        return best;
+    }
+
+    /** Time solving some boards all at once.
+     * @param boards The boards
+     * @param mode The mode
+     * @param threads The threads
+     * @return The best time for the boards, in nanoseconds
+     */
+    private long timeMany(List<Board> boards, Mode mode, int threads) {
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < 3; ++round) {
+            long t = System.nanoTime();
+            solve(boards, mode, threads);
+            best = Math.min(best, System.nanoTime() - t);
+        }
+        return best;
+    }
+
+    /** The thread counts worth trying on this machine:  1, 2, 4... up to
+     * the number of cores, and the number of cores itself.
+     * @return The counts
+     */
+    private static List<Integer> threadCounts() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        List<Integer> counts = new ArrayList<Integer>();
+        for (int t = 1; t < cores; t *= 2) {
+            counts.add(t);
+        }
+        counts.add(cores);
+        return counts;
+    }
+
+    /** Time each mode on this machine and keep the fastest. */
+    public void calibrate() {
+        List<Board> boards = new ArrayList<Board>();
+        for (int i = 0; i < MANY_BOARDS; ++i) {
+            boards.add(new Board(CALIBRATION_SEED + i, dictionary));
+        }
+        List<Board> few = boards.subList(0, SINGLE_BOARDS);
+
+        //warm up the JIT (and build a lazily loaded dictionary)
+        timeSingle(few, Mode.SERIAL, 1);
+        timeMany(few, Mode.BATCH, 1);
+
+        single = Mode.SERIAL;
+        single_threads = 1;
+        long best = timeSingle(few, Mode.SERIAL, 1);
+        plans = new ArrayList<Plan>();
+        plans.add(measure(boards, Mode.SERIAL, 1));
+        for (int t : threadCounts()) {
+            if (t > 1) {
+                long time = timeSingle(few, Mode.PARALLEL, t);
+                if (time < best) {
+                    best = time;
+                    single = Mode.PARALLEL;
+                    single_threads = t;
+                }
+            }
+            plans.add(measure(boards, Mode.BATCH, t));
+        }
+    }
+
+    /** Time a way of solving lists on the boards as one long list and as
+     * short lists, and split its cost into a fixed part and a part per
+     * board.  Both times are for the same boards, so the difference is
+     * all fixed cost, however hard the boards are.
+     * @param boards The boards, MANY_BOARDS of them
+     * @param mode The mode
+     * @param threads The threads
+     * @return The Plan
+     */
+    private Plan measure(List<Board> boards, Mode mode, int threads) {
+        long many = timeMany(boards, mode, threads);
+        long few = 0;
+        for (int i = 0; i < MANY_BOARDS; i += FEW_BOARDS) {
+            few += timeMany(boards.subList(i, i + FEW_BOARDS), mode, threads);
+        }
+        int calls = MANY_BOARDS / FEW_BOARDS;
+        long fixed = Math.max(0, (few - many) / (calls - 1));
+        long each = Math.max(0, (many - fixed) / MANY_BOARDS);
+        return new Plan(mode, threads, fixed, each);
+    }
+
+    /** Read a profile, if it matches this machine and dictionary.
+     * @param filename The profile file
+     * @return True if it was read and used
+     */
+    private boolean load(String filename) {
+        Properties p = new Properties();
+        try {
+            FileInputStream in = new FileInputStream(filename);
+            try {
+                p.load(in);
+            }
+            finally {
+                in.close();
+            }
+            int cores = Integer.parseInt(p.getProperty("cores"));
+            int words = Integer.parseInt(p.getProperty("words"));
+            if (cores != Runtime.getRuntime().availableProcessors()
+                    || words != dictionary.idCount())
+            {
+                return false;
+            }
+            single = Mode.valueOf(p.getProperty("single.mode"));
+            single_threads = Integer.parseInt(p.getProperty("single.threads"));
+            int n = Integer.parseInt(p.getProperty("plans"));
+            if (n < 1) {
+                return false;
+            }
+            plans = new ArrayList<Plan>();
+            for (int i = 0; i < n; ++i) {
+                String key = "plan." + i + ".";
+                plans.add(new Plan(
+                        Mode.valueOf(p.getProperty(key + "mode")),
+                        Integer.parseInt(p.getProperty(key + "threads")),
+                        Long.parseLong(p.getProperty(key + "fixed")),
+                        Long.parseLong(p.getProperty(key + "each"))));
+            }
+            return true;
+        }
+        catch (IOException | RuntimeException e) {
+            return false;   //missing or unreadable, so calibrate again
+        }
+    }
+
+    /** Save the profile.  Prints a stack trace if it can't be written.
+     * @param filename The profile file
+     */
+    private void save(String filename) {
+        Properties p = new Properties();
+        p.setProperty("cores",
+                      "" + Runtime.getRuntime().availableProcessors());
+        p.setProperty("words", "" + dictionary.idCount());
+        p.setProperty("single.mode", single.name());
+        p.setProperty("single.threads", "" + single_threads);
+        p.setProperty("plans", "" + plans.size());
+        for (int i = 0; i < plans.size(); ++i) {
+            String key = "plan." + i + ".";
+            Plan plan = plans.get(i);
+            p.setProperty(key + "mode", plan.mode.name());
+            p.setProperty(key + "threads", "" + plan.threads);
+            p.setProperty(key + "fixed", "" + plan.fixed);
+            p.setProperty(key + "each", "" + plan.each);
+        }
+        try {
+            FileOutputStream out = new FileOutputStream(filename);
+            try {
+                p.store(out, "Solver profile, see Solver.java");
+            }
+            finally {
+                out.close();
+            }
+        }
+        catch (IOException ioe) {
+            ioe.printStackTrace();
+        }
+    }
+
+    /** Describe the choices, for lists of up to MANY_BOARDS.
+     * @return e.g. "one board: PARALLEL x4, many boards: SERIAL x1 from
+     *         2, BATCH x8 from 12"
+     */
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("one board: " + single + " x" + single_threads);
+        sb.append(", many boards:");
+        Plan last = null;
+        for (int n = 2; n <= MANY_BOARDS; ++n) {
+            Plan p = plan(n);
+            if (p != last) {
+                sb.append((last == null) ? " " : ", ");
+                sb.append(p + " from " + n);
+                last = p;
+            }
+        }
+        return sb.toString();
+    }
+
+    /** Calibrate (or read the profile) and solve a range of seeds.
+     * Usage:  java Solver [profileFile [firstSeed [count]]]
+     */
+    public static void main(String[] args) {
+        String profile = (args.length > 0) ? args[0] : "solver.profile";
+        long first = (args.length > 1) ? Long.parseLong(args[1]) : 0;
+        int count = (args.length > 2) ? Integer.parseInt(args[2]) : 1000;
+        Trie dictionary = Board.loadDictionary("american-english");
+
+        long t = System.nanoTime();
+        Solver s = new Solver(dictionary, profile);
+        t = System.nanoTime() - t;
+        System.out.println(s + " (" + (t / 1000000) + " ms to set up)");
+
+        List<Board> boards = new ArrayList<Board>();
+        for (int i = 0; i < count; ++i) {
+            boards.add(new Board(first + i, dictionary));
+        }
+        t = System.nanoTime();
+        long total = 0;
+        for (Queue<String> q : s.solve(boards)) {
+            total += Board.countPoints(q);
+        }
+        t = System.nanoTime() - t;
+        System.out.println(total + " points, " + (t / 1000000) + " ms");
+    }
+}
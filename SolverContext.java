@@ -0,0 +1,143 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/** Scratch space for solving boards, kept from one board to the next.
+ *
+ * Board.allPaths() and Board.score() need a search iterator, a bitset of
+ * the word ids found so far, the current path and the result.  Making
+ * those for every board is most of what a game server allocates per
+ * game, so Board.allPaths(SolverContext) and Board.score(SolverContext)
+ * borrow them from a context instead:  the bitset is cleared by unsetting
+ * just the ids the last board found (the ids in the result, or the ones
+ * score() recorded), and the WordPaths keeps its arrays.  Each solve
+ * replaces the last one's result, so read result() before solving again.
+ * Together with Board.reroll() (or Board.load()), that makes a steady
+ * stream of games allocation free.
+ *
+ * A context is for one thread at a time.  A Pool hands them out to
+ * threads that come and go, e.g. a server's request handlers.
+ */
+public class SolverContext {
+    /** A pool of contexts for one dictionary */
+    public static class Pool {
+        /** The dictionary */
+        private final Trie dictionary;
+        /** The contexts not in use */
+        private final ConcurrentLinkedQueue<SolverContext> free =
+                new ConcurrentLinkedQueue<SolverContext>();
+
+        /** Create an empty Pool.
+         * @param dict The dictionary its contexts are for
+         */
+        public Pool(Trie dict) {
+            dictionary = dict;
+        }
+
+        /** Take a context, making one if there are none free.
+         * @return The context, which is the caller's until give()
+         */
+        public SolverContext take() {
+            SolverContext ctx = free.poll();
+            Metrics.CONTEXTS_IN_USE.add(1);
+            if (ctx == null) {
+                return new SolverContext(dictionary);
+            }
+            Metrics.CONTEXTS_FREE.add(-1);
+            return ctx;
+        }
+
+        /** Give a context back.  Its last result is lost.
+         * @param ctx The context, from take()
+         */
+        public void give(SolverContext ctx) {
+            free.add(ctx);
+            Metrics.CONTEXTS_IN_USE.add(-1);
+            Metrics.CONTEXTS_FREE.add(1);
+        }
+    }
+
+    /** The dictionary the scratch space is sized for */
+    private Trie dictionary;
+    /** A search that is at the root between boards */
+    Trie.SearchIterator it;
+    /** The ids found so far, as a bitset */
+    long[] seen;
+    /** The current path, as cells */
+    int[] path = new int[25];
+    /** The cells on the current path */
+    boolean[][] used = new boolean[5][5];
+    /** The letters on the board, by cell */
+    char[] cells = new char[25];
+    /** The last result */
+    private WordPaths found;
+    /** The ids Board.score(SolverContext) set in seen, so it can clear
+     * just those
+     */
+    private int[] scored = new int[256];
+    /** The number of ids in scored */
+    private int numScored;
+
+    /** Create a context.
+     * @param dict The dictionary it will mostly be used with (it adapts
+     *             to others, at the cost of allocating again)
+     */
+    public SolverContext(Trie dict) {
+        reset(dict);
+    }
+
+    /** Size everything for a dictionary.
+     * @param dict The dictionary
+     */
+    private void reset(Trie dict) {
+        dictionary = dict;
+        it = dict.beginSearch();
+        seen = new long[(dict.idCount() + 63) / 64];
+        found = new WordPaths(dict);
+        numScored = 0;
+    }
+
+    /** Get ready to solve a board:  clear the last board's words out of
+     * the bitset and the result.
+     * @param dict The board's dictionary
+     * @return The (empty) result to fill in
+     */
+    WordPaths begin(Trie dict) {
+        if (dict != dictionary || seen.length * 64 < dict.idCount()) {
+            reset(dict);    //a different (or grown) dictionary
+            return found;
+        }
+        for (int i = found.size() - 1; i >= 0; --i) {
+            int id = found.id(i);
+            seen[id >>> 6] &= ~(1L << id);
+        }
+        clearScored();      //normally already done, unless score() threw
+        found.clear();
+        return found;
+    }
+
+    /** Record an id that Board.score(SolverContext) set in the bitset.
+     * @param id The id
+     */
+    void scored(int id) {
+        if (numScored == scored.length) {
+            scored = Arrays.copyOf(scored, 2 * numScored);
+        }
+        scored[numScored++] = id;
+    }
+
+    /** Clear the ids recorded by scored() out of the bitset. */
+    void clearScored() {
+        for (int i = 0; i < numScored; ++i) {
+            seen[scored[i] >>> 6] &= ~(1L << scored[i]);
+        }
+        numScored = 0;
+    }
+
+    /** Get the last result of Board.allPaths(SolverContext).
+     * @return The result, which the next solve (allPaths() or score())
+     *         with this context empties or overwrites
+     */
+    public WordPaths result() {
+        return found;
+    }
+}
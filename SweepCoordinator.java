@@ -0,0 +1,333 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/** A seed sweep split over several worker processes.
+ *
+ * One JVM (see SeedSweep) eventually runs out of memory bandwidth and
+ * spends its time in GC, so this splits the range into shards and farms
+ * them out to SweepWorker processes that it starts itself on this host.
+ * The workers connect back to a port on the loopback interface and are
+ * handed shards one at a time as they finish the last, so a slow worker
+ * just gets fewer.  Their Stats are merged as they come in.
+ *
+ * A worker that dies (or stops answering for TIMEOUT) loses its
+ * connection, and the shard it was working on goes back in the queue for
+ * the others.  Dead processes are replaced, up to a limit, so a sweep
+ * still finishes if workers keep crashing, and fails (rather than hangs)
+ * if they all do.  The result is the same as SeedSweep's for the range.
+ */
+public class SweepCoordinator {
+    /** How long a shard may take before its worker counts as dead */
+    private static final int TIMEOUT = 10 * 60 * 1000;
+
+    /** Shards waiting for a worker, for the metrics endpoint */
+    private static final Metrics.Gauge PENDING = Metrics.gauge(
+            "boggle_sweep_shards", "Shards of the current sweep, by state",
+            "state=\"pending\"");
+    /** Shards handed out and not merged yet */
+    private static final Metrics.Gauge RUNNING = Metrics.gauge(
+            "boggle_sweep_shards", null, "state=\"running\"");
+
+    /** The dictionary, for the number of word ids */
+    private Trie dictionary;
+    /** The shards not handed out yet, as {first seed, count} */
+    private ArrayDeque<long[]> pending = new ArrayDeque<long[]>();
+    /** The number of shards not merged yet */
+    private int outstanding;
+    /** The merged counts */
+    private SeedSweep.Stats total;
+    /** Where to print progress, or null */
+    private PrintStream progress;
+
+    /** Create a SweepCoordinator.
+     * @param dict The dictionary (the workers load the same one)
+     */
+    public SweepCoordinator(Trie dict) {
+        dictionary = dict;
+    }
+
+    /** Sweep a range of seeds over worker processes.
+     * @param first The first seed
+     * @param count The number of seeds
+     * @param workers The number of worker processes
+     * @param shardSize The seeds per shard
+     * @param threads The threads per worker
+     * @param out Where to print progress, or null for nowhere
+     * @return The counts for the boards [first, first + count)
+     * @throws IOException If the workers can't be started
+     * @throws IllegalStateException If the workers keep dying
+     */
+    public SeedSweep.Stats run(long first, long count, int workers,
+                               int shardSize, int threads, PrintStream out)
+            throws IOException
+    {
+        total = new SeedSweep.Stats(dictionary.idCount());
+        progress = out;
+        for (long i = 0; i < count; i += shardSize) {
+            pending.add(new long[] {first + i,
+                                    Math.min(shardSize, count - i)});
+        }
+        outstanding = pending.size();
+        PENDING.set(outstanding);
+        RUNNING.set(0);
+
+        final ServerSocket server =
+                new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        List<Process> procs = new ArrayList<Process>();
+        int restarts = 2 * workers;
+        try {
+            Thread acceptor = new Thread(new Runnable() {
+                public void run() {
+                    accept(server);
+                }
+            }, "SweepCoordinator");
+            acceptor.setDaemon(true);
+            acceptor.start();
+
+            for (int w = 0; w < workers; ++w) {
+                procs.add(spawn(server.getLocalPort(), threads, w));
+            }
+            //replace dead workers until everything is merged
+            while (!isDone()) {
+                for (Iterator<Process> it = procs.iterator(); it.hasNext();) {
+                    if (!it.next().isAlive()) {
+                        it.remove();
+                    }
+                }
+                while (procs.size() < workers && restarts > 0) {
+                    --restarts;
+                    log("restarting a worker");
+                    procs.add(spawn(server.getLocalPort(), threads, -1));
+                }
+                if (procs.isEmpty()) {
+                    throw new IllegalStateException("workers keep dying");
+                }
+                waitForChange(1000);
+            }
+        }
+        finally {
+            server.close();
+            for (Process p : procs) {
+                try {
+                    if (!p.waitFor(5, TimeUnit.SECONDS)) {
+                        p.destroy();
+                    }
+                }
+                catch (InterruptedException e) {
+                    p.destroy();
+                }
+            }
+        }
+        return total;
+    }
+
+    /** Start a worker process, with the same java and classpath as this
+     * JVM.  Its output goes to ours.
+     * @param port The port to connect to
+     * @param threads Its threads
+     * @param w Which worker this is, or -1 for a replacement
+     * @return The process
+     * @throws IOException If it can't be started
+     */
+    private static Process spawn(int port, int threads, int w)
+            throws IOException
+    {
+        List<String> cmd = new ArrayList<String>();
+        cmd.add(System.getProperty("java.home") + File.separator + "bin" +
+                File.separator + "java");
+        cmd.add("-cp");
+        cmd.add(System.getProperty("java.class.path"));
+        cmd.add("SweepWorker");
+        cmd.add("" + port);
+        cmd.add("" + threads);
+        //for testing:  -Dboggle.crashAfter=n makes worker 0 die on its
+        //nth shard
+        String crash = System.getProperty("boggle.crashAfter");
+        if (w == 0 && crash != null) {
+            cmd.add(crash);
+        }
+        return new ProcessBuilder(cmd).inheritIO().start();
+    }
+
+    /** Accept workers until the server is closed, serving each on its
+     * own thread.
+     * @param server The server socket
+     */
+    private void accept(ServerSocket server) {
+        while (true) {
+            final Socket s;
+            try {
+                s = server.accept();
+            }
+            catch (IOException e) {
+                return;     //closed, so the sweep is over
+            }
+            Thread t = new Thread(new Runnable() {
+                public void run() {
+                    serve(s);
+                }
+            }, "SweepCoordinator");
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    /** Hand shards to one worker until there are none left or it dies.
+     * @param s The worker's connection
+     */
+    private void serve(Socket s) {
+        long[] shard = null;
+        try {
+            s.setSoTimeout(TIMEOUT);
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(s.getInputStream()));
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(s.getOutputStream()));
+            if (in.readInt() != SweepWorker.MAGIC
+                    || in.readInt() != dictionary.idCount())
+            {
+                log("a worker has a different dictionary");
+                return;
+            }
+            while ((shard = take()) != null) {
+                out.writeLong(shard[0]);
+                out.writeLong(shard[1]);
+                out.flush();
+                SeedSweep.Stats st =
+                        SeedSweep.Stats.read(in, dictionary.idCount());
+                if (st.boards != shard[1]) {
+                    throw new IOException("short shard");
+                }
+                finish(st);
+                shard = null;
+            }
+            out.writeLong(0);
+            out.writeLong(0);
+            out.flush();
+        }
+        catch (IOException e) {
+            if (shard != null) {
+                log("lost shard " + shard[0] + " (" + e +
+                    "), reassigning it");
+                giveBack(shard);
+            }
+        }
+        finally {
+            try {
+                s.close();
+            }
+            catch (IOException e) {
+                //do nothing... it's closed either way.
+            }
+        }
+    }
+
+    /** Take a shard to work on, waiting while the only shards left are
+     * out with other workers (one of them might die).
+     * @return The shard, or null if everything is merged
+     */
+    private synchronized long[] take() {
+        while (pending.isEmpty() && outstanding > 0) {
+            try {
+                wait();
+            }
+            catch (InterruptedException e) {
+                //do nothing... just try again.
+            }
+        }
+        long[] shard = pending.poll();
+        if (shard != null) {
+            PENDING.add(-1);
+            RUNNING.add(1);
+        }
+        return shard;
+    }
+
+    /** Put back a shard whose worker died.
+     * @param shard The shard
+     */
+    private synchronized void giveBack(long[] shard) {
+        pending.add(shard);
+        PENDING.add(1);
+        RUNNING.add(-1);
+        notifyAll();
+    }
+
+    /** Merge a finished shard.
+     * @param st Its counts
+     */
+    private synchronized void finish(SeedSweep.Stats st) {
+        total.merge(st);
+        --outstanding;
+        RUNNING.add(-1);
+        log(total.boards + " boards done, " + outstanding + " shards left");
+        notifyAll();
+    }
+
+    /** Check whether every shard is merged.
+     * @return True if it is
+     */
+    private synchronized boolean isDone() {
+        return outstanding == 0;
+    }
+
+    /** Wait until a shard finishes or comes back, or for a while.
+     * @param millis The longest to wait
+     */
+    private synchronized void waitForChange(long millis) {
+        if (outstanding > 0) {
+            try {
+                wait(millis);
+            }
+            catch (InterruptedException e) {
+                //do nothing... the caller checks again.
+            }
+        }
+    }
+
+    /** Print a progress message, if there is anywhere to print it.
+     * @param msg The message
+     */
+    private void log(String msg) {
+        if (progress != null) {
+            progress.println(msg);
+        }
+    }
+
+    /** Sweep a range of seeds over worker processes on this host and
+     * print the statistics, as SeedSweep does.
+     * Usage:  java SweepCoordinator firstSeed count [workers [shardSize
+     *         [threadsPerWorker]]]
+     * Progress goes to stderr and the statistics to stdout.
+     */
+    public static void main(String[] args) throws IOException {
+        long first = Long.parseLong(args[0]);
+        long count = Long.parseLong(args[1]);
+        int workers = (args.length > 2) ? Integer.parseInt(args[2])
+                      : Runtime.getRuntime().availableProcessors();
+        int shardSize = (args.length > 3) ? Integer.parseInt(args[3]) : 10000;
+        int threads = (args.length > 4) ? Integer.parseInt(args[4]) : 1;
+        Metrics.serveIfAsked();
+        Trie dictionary = Board.loadDictionary("american-english");
+
+        long time = System.currentTimeMillis();
+        SeedSweep.Stats s = new SweepCoordinator(dictionary)
+                .run(first, count, workers, shardSize, threads, System.err);
+        time = System.currentTimeMillis() - time;
+        s.print(System.out, dictionary);
+        System.err.println((time / 1000.0) + " seconds");
+    }
+}
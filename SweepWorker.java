@@ -0,0 +1,72 @@
+import java.net.InetAddress;
+import java.net.Socket;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+
+/** A worker process for SweepCoordinator.
+ *
+ * It connects to the coordinator's port on this host, says hello (MAGIC
+ * and its dictionary's idCount(), so the coordinator can check that the
+ * word ids agree), and then loops:  read a shard (first seed, count),
+ * solve it with SeedSweep and send back the Stats.  A count of 0 means
+ * there is nothing left, and so does the coordinator going away.
+ *
+ * The idCount() check can't tell a lazily loaded dictionary from an
+ * eager one, which number the same file differently (see
+ * Trie.idCount()), so both sides must load it the same way; they both
+ * use Board.loadDictionary().
+ */
+public class SweepWorker {
+    /** Starts a worker's hello */
+    public static final int MAGIC = 0x53575031;
+
+    /** Run a worker.
+     * Usage:  java SweepWorker port [threads [crashAfter]]
+     * crashAfter makes the worker die (without answering) when it gets
+     * that many shards, which is handy for testing SweepCoordinator.
+     */
+    public static void main(String[] args) throws IOException {
+        int port = Integer.parseInt(args[0]);
+        int threads = (args.length > 1) ? Integer.parseInt(args[1]) : 1;
+        int crashAfter = (args.length > 2) ? Integer.parseInt(args[2]) : -1;
+        Trie dictionary = Board.loadDictionary("american-english");
+        SeedSweep sweep = new SeedSweep(dictionary, threads);
+
+        Socket s = new Socket(InetAddress.getLoopbackAddress(), port);
+        try {
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(s.getInputStream()));
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(s.getOutputStream()));
+            out.writeInt(MAGIC);
+            out.writeInt(dictionary.idCount());
+            out.flush();
+            for (int shards = 1; true; ++shards) {
+                long first;
+                long count;
+                try {
+                    first = in.readLong();
+                    count = in.readLong();
+                }
+                catch (EOFException e) {
+                    return;     //the coordinator is gone
+                }
+                if (count == 0) {
+                    return;
+                }
+                if (shards == crashAfter) {
+                    Runtime.getRuntime().halt(1);
+                }
+                sweep.run(first, count, 1000, null).write(out);
+                out.flush();
+            }
+        }
+        finally {
+            s.close();
+        }
+    }
+}
@@ -1,15 +1,39 @@
 import java.util.Queue;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import java.text.StringCharacterIterator;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.io.IOException;
 
 /** A prefix Trie.
- * Note:  This Trie will only work on strings "[A-Z]*".  Any
- * other characters will cause failure conditions.
+ * Note:  This Trie will only work on strings of the letters of its
+ * Alphabet (by default Alphabet.ENGLISH, i.e. "[A-Z]*").  Any other
+ * characters will cause failure conditions.  The methods that say they
+ * are case insensitive take words as they are written and convert them
+ * with Alphabet.encode(); the rest take them already encoded (which for
+ * English just means uppercase).
  *
  * This Trie is built to be fast, so it has minimal error
  * checking.  If you send it bad input you'll probably segfault.
  */
-public class Trie {
+public class Trie implements Iterable<String> {
 
     /** Enum to allow checking both the membership of a key k
      * and the existance of any keys prefixed by k */
@@ -25,6 +49,48 @@ public class Trie {
         /** The current node being visited */
         private Node curNode;
 
+        /** The codes of the letters, see Alphabet */
+        private byte[] codes;
+
+        /** path[d] is the node at depth d on the way down to curNode, if
+         * the Trie shares nodes with other versions of it (see withWord()):
+         * then a node's parent is in whichever version made it, so up()
+         * goes back along the path instead.  Otherwise null, and up() just
+         * follows the parent.
+         */
+        private Node[] path;
+
+        /** The Trie being searched if it was loaded lazily (see
+         * loadLazy()), else null.  Near the root, the iterator asks it
+         * to build whatever it is about to look at.
+         */
+        private Trie owner;
+
+        /** Make sure the subtrie that next(c) leads into is built.
+         * @param c The character about to be appended
+         */
+        private void force(char c) {
+            if (owner != null && curNode != null && curNode.depth == 1) {
+                owner.build(curNode.char_here, c);
+            }
+        }
+
+        /** Make sure whether this node is a string is known. */
+        private void forceHere() {
+            if (owner != null && curNode != null && curNode.depth == 1) {
+                owner.build(curNode.char_here, (char) 0);
+            }
+        }
+
+        /** Make sure everything below this node is built, so that its
+         * summaries are exact.
+         */
+        private void forceBelow() {
+            if (owner != null && curNode != null && curNode.depth < 2) {
+                owner.buildBelow(curNode);
+            }
+        }
+
         /** Check membership of the current location
          * @return True if this iterator represents a string in the set
          */
@@ -32,6 +98,7 @@ public class Trie {
             if (curNode == null) {
                 return false;
             }
+            forceHere();
             return curNode.value_here;
         }
 
@@ -43,16 +110,10 @@ public class Trie {
             if (curNode == null) {
                 return false;
             }
+            //Nodes are only ever created on the way to inserting a
+            //string, so every node has word_count > 0 and the null check
+            //is already exact.
             return true;
-            //this is semantically more correct than return true,
-            //but I don't know if it's worth the extra work.
-            //Benchmark.
-            /*
-               for (Node child : curNode.children) {
-               if (child != null) return true;
-               }
-               return curNode.value_here;
-             */
         }
 
         /** Descend to the next level in the Trie.
@@ -65,14 +126,162 @@ public class Trie {
         public void next(char c) {
             if (curNode == null)
                 return;
-            curNode = curNode.children[Node.index(c)];
+            force(c);
+            if (path != null) {
+                push();
+            }
+            curNode = curNode.children[codes[c]];
+        }
+
+        /** Remember curNode in path before moving below it. */
+        private void push() {
+            int d = curNode.depth;
+            if (d == path.length) {
+                path = Arrays.copyOf(path, 2 * d);
+            }
+            path[d] = curNode;
+        }
+
+        /** Check whether next(c) would stay in the Trie, without moving.
+         * This lets a single iterator walk the whole Trie with next()
+         * and up(), since it never has to fall off the bottom.
+         * @param c The character to check
+         * @return True if next(c) leads to a node
+         */
+        public boolean hasChild(char c) {
+            if (curNode == null) {
+                return false;
+            }
+            force(c);
+            return curNode.children[codes[c]] != null;
+        }
+
+        /** Get the set of characters that lead somewhere from here.
+         * @return A mask with bit Alphabet.index(c) set iff hasChild(c)
+         */
+        public int childMask() {
+            if (curNode == null) {
+                return 0;
+            }
+            forceBelow();
+            return curNode.child_mask;
+        }
+
+        /** Get the letters that appear below this node, i.e. the letters
+         * that could still be appended on the way to some word.
+         * @return A mask with bit Alphabet.index(c) set for each such c
+         */
+        public int subtreeMask() {
+            if (curNode == null) {
+                return 0;
+            }
+            forceBelow();
+            return curNode.subtree_mask;
+        }
+
+        /** Get the letters that every word below this node still needs.
+         * @return A mask with bit Alphabet.index(c) set for each such c (0 if
+         *         this node is itself a word)
+         */
+        public int neededMask() {
+            if (curNode == null) {
+                return 0;
+            }
+            forceBelow();
+            return curNode.needed_mask;
+        }
+
+        /** Get the number of letters needed to finish the longest word
+         * with this prefix.
+         * @return The count, or -1 if there are no such words
+         */
+        public int longestRemaining() {
+            if (curNode == null) {
+                return -1;
+            }
+            forceBelow();
+            if (curNode.word_count == 0) {
+                return -1;
+            }
+            return curNode.max_remaining;
+        }
+
+        /** Get the number of letters needed to finish the shortest word
+         * with this prefix.
+         * @return The count, or -1 if there are no such words
+         */
+        public int shortestRemaining() {
+            if (curNode == null) {
+                return -1;
+            }
+            forceBelow();
+            if (curNode.word_count == 0) {
+                return -1;
+            }
+            return curNode.min_remaining;
+        }
+
+        /** Get the number of words with this prefix (including the
+         * prefix itself, if it is a word).
+         * @return The count
+         */
+        public int wordCount() {
+            if (curNode == null) {
+                return 0;
+            }
+            forceBelow();
+            return curNode.word_count;
+        }
+
+        /** Get the id of the string at this node.
+         * @return The id, or -1 if inSet() is false
+         */
+        public int wordId() {
+            if (curNode == null) {
+                return -1;
+            }
+            forceHere();
+            return curNode.id;
+        }
+
+        /** Get the length of the string at this node.
+         * @return The length (0 at the root)
+         */
+        public int depth() {
+            if (curNode == null) {
+                return -1;
+            }
+            return curNode.depth;
+        }
+
+        /** Descend to the next level in the Trie, but only if that
+         * doesn't fall off the bottom.  This is hasChild(c) and next(c)
+         * in one step.
+         * @param c The character to append
+         * @return True if the iterator moved; if not, it is unchanged
+         */
+        public boolean tryNext(char c) {
+            if (curNode == null) {
+                return false;
+            }
+            force(c);
+            Node n = curNode.children[codes[c]];
+            if (n == null) {
+                return false;
+            }
+            if (path != null) {
+                push();
+            }
+            curNode = n;
+            return true;
         }
 
         /** Construct a SearchIterator.
          * @param The root of the Trie to search
          */
-        public SearchIterator(Node n) {
+        public SearchIterator(Node n, Alphabet a) {
             curNode = n;
+            codes = a.codes;
         }
 
         /** Copy a SearchIterator.
@@ -80,6 +289,9 @@ public class Trie {
          */
         public SearchIterator(SearchIterator si) {
             curNode = si.curNode;
+            codes = si.codes;
+            path = (si.path == null) ? null : si.path.clone();
+            owner = si.owner;
         }
 
         /** Get the string corresponding to the node pointed to by the
@@ -106,9 +318,16 @@ public class Trie {
          * case, reachable() will return false.
          */
         public void up() {
-            if (curNode != null) {
+            if (curNode == null) {
+                return;
+            }
+            if (path == null) {
                 curNode = curNode.parent;
             }
+            else {
+                curNode = (curNode.depth == 0) ? null
+                                               : path[curNode.depth - 1];
+            }
         }
         
         /** Get the current cached string.  This may be null.
@@ -131,6 +350,20 @@ public class Trie {
         /** Whether this node represents a string in the Trie */
         public boolean value_here;
 
+        /** The length of the string at this node (0 at the root) */
+        public short depth;
+
+        /** The code of char_here, i.e. this node's index in its parent's
+         * child array
+         */
+        public byte index_here;
+
+        /** The id of the string at this node, or -1 if there is none.
+         * Ids let callers keep per-word data in flat arrays instead of
+         * maps keyed by String.
+         */
+        public int id = -1;
+
         /** The current node represented as a String, starting at the
          * root.  This might be null - but it's private.  The fact that
          * a string isn't stored at every node is encapsulated by calling
@@ -144,41 +377,167 @@ public class Trie {
         //need to benchmark for that though.
         public Node[] children;
 
+        /** Bit i is set iff children[i] is not null.  This lets a search
+         * ask "can this prefix be followed by any of these letters?" in
+         * one operation.
+         */
+        public int child_mask;
+
+        /* Summary of the subtree under this node, kept up to date by
+         * markWord() as words are inserted.  A search can use these to
+         * give up on a prefix early (e.g. if the board doesn't have a
+         * letter that every word below needs), and word_count answers
+         * "how many words start with this?" without a traversal.
+         */
+
+        /** The number of words in this subtree, including this node */
+        public int word_count;
+
+        /** Letters on the path from here to some word, not counting the
+         * letter at this node.  Bit i is set for letter index i.
+         */
+        public int subtree_mask;
+
+        /** Letters on the path from here to every word (the intersection
+         * of the paths).  All ones while the subtree is empty.
+         */
+        public int needed_mask = -1;
+
+        /** Letters from here to the end of the longest word below */
+        public short max_remaining;
+
+        /** Letters from here to the end of the shortest word below */
+        public short min_remaining = Short.MAX_VALUE;
+
+        /** The total size of the fields above, for footprint() */
+        static final int FIELD_BYTES = 3 * Footprint.REF + 2 + 1 + 2 + 1
+                                       + 4 * 5 + 2 + 2;
+
+        /** Create a root node.
+         * @param width The number of letters in the alphabet
+         */
+        public Node(int width) {
+            depth = 0;
+            children = new Node[width];
+        }
+
         /** Create a node with a given character character and parent
          * @param c The character at this node
+         * @param i The code of c
          * @param p The parent of this node
          */
-        public Node(char c, Node p) {
+        public Node(char c, int i, Node p) {
             parent = p;
             char_here = c;
+            index_here = (byte) i;
             value_here = false;
-            children = new Node[26];
-        }
-
-        /** Get the index corresponding to a character into the child
-         *  array
-         *  @param c The character key
-         *  @return i The index into the array
-         */ 
-        public static int index(char c) {
-            return (int) (c - 'A');
+            depth = (short) (p.depth + 1);
+            children = new Node[p.children.length];
         }
 
         /** Get the proper child node corresponding to a character,
          *  creating the node if necessary.
          *  @param c The character key.
+         *  @param i The code of c (see Alphabet.index())
          */
-        public Node get(char c) {
-            int i = index(c);
+        public Node get(char c, int i) {
             Node n = children[i];
 
             if (n == null) {
-                n = new Node(c, this);
+                n = new Node(c, i, this);
                 children[i] = n;
+                child_mask |= 1 << i;
             }
             return n;
         }
         
+        /** Mark this node as a string in the Trie, and update the
+         * summary data of this node and all of its ancestors.
+         * @return True if this was not already a string in the Trie
+         */
+        public boolean markWord() {
+            return markWord(null);
+        }
+
+        /** Mark this node as a string in the Trie, and update the
+         * summary data of this node and its ancestors below a given node.
+         * (build() uses this to fill in several subtries at once, and
+         * fixes up the node above them afterwards.)
+         * @param above The first ancestor not to update, or null for none
+         * @return True if this was not already a string in the Trie
+         */
+        public boolean markWord(Node above) {
+            if (value_here) {
+                return false;
+            }
+            value_here = true;
+            int mask = 0;
+            int dist = 0;
+            for (Node n = this; n != above; n = n.parent) {
+                ++n.word_count;
+                n.subtree_mask |= mask;
+                n.needed_mask &= mask;
+                if (dist > n.max_remaining) {
+                    n.max_remaining = (short) dist;
+                }
+                if (dist < n.min_remaining) {
+                    n.min_remaining = (short) dist;
+                }
+                if (n.char_here != 0) {
+                    mask |= 1 << n.index_here;
+                }
+                ++dist;
+            }
+            return true;
+        }
+
+        /** Recompute the summary of this node from its children, e.g.
+         * after a word below it has been removed.  This gives the same
+         * result as markWord() would have for the words still below.
+         */
+        public void recompute() {
+            word_count = value_here ? 1 : 0;
+            subtree_mask = 0;
+            needed_mask = value_here ? 0 : -1;
+            max_remaining = 0;
+            min_remaining = value_here ? 0 : Short.MAX_VALUE;
+            for (Node c : children) {
+                if (c == null || c.word_count == 0) {
+                    continue;
+                }
+                int bit = 1 << c.index_here;
+                word_count += c.word_count;
+                subtree_mask |= bit | c.subtree_mask;
+                needed_mask &= bit | c.needed_mask;
+                if (c.max_remaining + 1 > max_remaining) {
+                    max_remaining = (short) (c.max_remaining + 1);
+                }
+                if (c.min_remaining + 1 < min_remaining) {
+                    min_remaining = (short) (c.min_remaining + 1);
+                }
+            }
+        }
+
+        /** Copy this node but not the nodes below it, which the copy
+         * shares (see Trie.copyFor()).
+         * @param p The parent of the copy
+         * @return The copy
+         */
+        public Node copy(Node p) {
+            Node n = new Node(char_here, index_here, p);
+            n.value_here = value_here;
+            n.id = id;
+            n.str = str;
+            System.arraycopy(children, 0, n.children, 0, children.length);
+            n.child_mask = child_mask;
+            n.word_count = word_count;
+            n.subtree_mask = subtree_mask;
+            n.needed_mask = needed_mask;
+            n.max_remaining = max_remaining;
+            n.min_remaining = min_remaining;
+            return n;
+        }
+
         /** Get the string representaiton of this node, starting at the 
          * root.
          * @return The string representing the string at this node
@@ -224,20 +583,608 @@ public class Trie {
     /** The root of the Trie */
     private Node root;
 
+    /** The letters this Trie holds */
+    private final Alphabet alphabet;
+
     /** The number of elements in this Trie */
     private int m_size;
 
-    /** Create a Trie */
+    /** The word nodes, indexed by their id (null for an unused id).
+     * Versions made by withWord() and withoutWord() share one table, which
+     * only grows:  an entry is the node of the version that handed out the
+     * id, so in another version it may be a string that version doesn't
+     * have (see word()).  Changes to a shared table lock it.
+     */
+    private ArrayList<Node> by_id;
+
+    /** Whether this is a version made by withWord() or withoutWord(),
+     * which shares nodes and by_id with other versions
+     */
+    private boolean shared;
+
+    /** The number of ids this Trie has handed out (so, with by_id
+     * unshared, the id the next new string gets)
+     */
+    private int next_id;
+
+    /** The words of a lazily loaded Trie that haven't been inserted yet,
+     * or null once there are none (or if the Trie wasn't loaded lazily).
+     */
+    private volatile Lazy lazy;
+
+    /** The index of a word file that loadLazy() keeps until every part
+     * of the Trie has been built.  Versions of the Trie (see withWord())
+     * share it, along with the first letters they haven't changed, so a
+     * bucket built by one is built for all of them; building locks it.
+     *
+     * The words are grouped into buckets by their first two letters, plus
+     * one bucket per letter for the one letter words.  A bucket is built
+     * (its words inserted) the first time a search looks below the node
+     * for its prefix.  Ids are handed out up front in bucket order (a
+     * word's id is its place in words[], so file order within a bucket),
+     * so they don't depend on the order buckets are built in.  That is
+     * not the order an eager load (insertCase() in file order) numbers
+     * the same file in, so ids from a lazy Trie and an eager one must not
+     * be mixed.
+     */
+    private static class Lazy {
+        /** The word file */
+        final byte[] text;
+        /** The offset in text of each word, grouped by bucket */
+        final int[] words;
+        /** Bucket b's words are words[start[b], start[b + 1]) */
+        final int[] start;
+        /** The number of children a node can have */
+        final int width;
+        /** Bit b is set once bucket b has been built */
+        final AtomicLongArray built;
+        /** The number of buckets not built yet */
+        int left;
+
+        Lazy(byte[] t, int[] w, int[] st, int wd) {
+            text = t;
+            words = w;
+            start = st;
+            width = wd;
+            built = new AtomicLongArray((st.length + 62) / 64);
+            left = st.length - 1;
+        }
+
+        /** Get the bucket for a prefix.
+         * @param width The number of children a node can have
+         * @param i1 The code of the first letter
+         * @param i2 The code of the second letter, or -1 for the one
+         *           letter word
+         * @return The bucket
+         */
+        static int bucket(int width, int i1, int i2) {
+            return i1 * (width + 1) + ((i2 < 0) ? width : i2);
+        }
+
+        /** Get the bucket for a prefix, see bucket(int, int, int).
+         * @param i1 The code of the first letter
+         * @param i2 The code of the second letter, or -1
+         * @return The bucket
+         */
+        int bucket(int i1, int i2) {
+            return bucket(width, i1, i2);
+        }
+
+        /** Check if a bucket has been built.
+         * @param b The bucket
+         * @return True if it has
+         */
+        boolean isBuilt(int b) {
+            return (built.get(b >>> 6) & (1L << b)) != 0;
+        }
+    }
+
+    /** Create a Trie of English words */
     public Trie() {
-        root = new Node((char) 0, null);
+        this(Alphabet.ENGLISH);
+    }
+
+    /** Create a Trie.
+     * @param a The letters it will hold
+     */
+    public Trie(Alphabet a) {
+        alphabet = a;
+        root = new Node(a.size());
         m_size = 0;
+        by_id = new ArrayList<Node>();
+        next_id = 0;
+    }
+
+    /** Make a node a string in the Trie, giving it the next id if it
+     * wasn't one already.
+     * @param n The node
+     * @return n
+     */
+    private Node addWord(Node n) {
+        if (n.markWord()) {
+            n.id = next_id++;
+            if (n.id < by_id.size()) {
+                by_id.set(n.id, n);
+            }
+            else {
+                by_id.add(n);
+            }
+        }
+        return n;
+    }
+
+    /** Load a dictionary from a word file, lazily.
+     * This only reads the file and indexes its words by their first two
+     * letters, which is much quicker than inserting them all.  The part
+     * of the Trie under each two letter prefix is built the first time
+     * anything looks below that prefix (see SearchIterator), so solving
+     * one board only builds the parts the board can reach.  Anything that
+     * needs the whole Trie (enqueue(), match(), stream()...) builds the rest.
+     *
+     * Building is thread safe, so a lazily loaded Trie can be shared by
+     * threads just like any other.  The strings are cached as they appear
+     * in the file, as with insertCase().
+     *
+     * The words must be English (see Alphabet.ENGLISH), one byte per
+     * letter; use load(String, Alphabet) for other languages.
+     *
+     * Prints a stack trace if the file can't be read, and returns an
+     * empty Trie.
+     * @param filename The word file (whitespace separated words)
+     * @return The Trie
+     */
+    public static Trie loadLazy(String filename) {
+        long time = System.nanoTime();
+        Trie t = new Trie();
+        byte[] text;
+        try {
+            text = Files.readAllBytes(Paths.get(filename));
+        }
+        catch (IOException ioe) {
+            ioe.printStackTrace();
+            return t;
+        }
+        int width = t.root.children.length;
+        int buckets = width * (width + 1);
+        int[] bucket = new int[text.length / 2 + 1];
+        int[] offset = new int[bucket.length];
+        int[] start = new int[buckets + 1];
+        int n = 0;
+
+        //find the words and their buckets
+        for (int i = 0; i < text.length; ++i) {
+            if (isSpace(text[i]) || (i > 0 && !isSpace(text[i - 1]))) {
+                continue;
+            }
+            //skip words insertCase() would reject (e.g. "'tis"), which
+            //would otherwise land in a bucket that doesn't exist
+            int end = i;
+            while (end < text.length && !isSpace(text[end])) {
+                if (t.alphabet.index(Character.toUpperCase(
+                        (char) (text[end] & 0xff))) < 0)
+                {
+                    break;
+                }
+                ++end;
+            }
+            if (end < text.length && !isSpace(text[end])) {
+                continue;
+            }
+            char c1 = Character.toUpperCase((char) text[i]);
+            int i2 = (i + 1 < end)
+                     ? t.alphabet.index(
+                             Character.toUpperCase((char) text[i + 1]))
+                     : -1;
+            offset[n] = i;
+            bucket[n] = Lazy.bucket(width, t.alphabet.index(c1), i2);
+            ++start[bucket[n] + 1];
+            ++n;
+            t.get(t.root, c1);
+        }
+        //group them, keeping file order within each bucket
+        for (int b = 0; b < buckets; ++b) {
+            start[b + 1] += start[b];
+        }
+        int[] words = new int[n];
+        int[] fill = Arrays.copyOf(start, buckets);
+        for (int k = 0; k < n; ++k) {
+            words[fill[bucket[k]]++] = offset[k];
+        }
+        //reserve the ids, so a word's id is its place in words[], and
+        //count the words now (as insertCase() would have), since building
+        //a bucket can happen in any version of the Trie
+        for (int k = 0; k < n; ++k) {
+            t.by_id.add(null);
+        }
+        t.next_id = n;
+        t.m_size = n;
+        t.lazy = new Lazy(text, words, start, width);
+        Metrics.loaded(t, time);
+        return t;
+    }
+
+    /** Check if a byte of a word file separates words.  Bytes are
+     * signed, so a plain comparison would take every byte over 0x7f
+     * (e.g. an accented letter) for a space.
+     * @param b The byte
+     * @return True if it is a space or a control character
+     */
+    private static boolean isSpace(byte b) {
+        return (b & 0xff) <= ' ';
+    }
+
+    /** Load a dictionary from a word file in any language.
+     * The words are inserted with insertCase(), so they are cached as
+     * they appear in the file, and words that can't be spelled in the
+     * alphabet are skipped.
+     *
+     * Prints a stack trace if the file can't be read, and returns an
+     * empty Trie.
+     * @param filename The word file (whitespace separated words, UTF-8)
+     * @param a The alphabet, e.g. Alphabet.GERMAN
+     * @return The Trie
+     */
+    public static Trie load(String filename, Alphabet a) {
+        long time = System.nanoTime();
+        Trie t = new Trie(a);
+        String text;
+        try {
+            text = new String(Files.readAllBytes(Paths.get(filename)),
+                              StandardCharsets.UTF_8);
+        }
+        catch (IOException ioe) {
+            ioe.printStackTrace();
+            return t;
+        }
+        for (String s : text.split("\\s+")) {
+            if (s.length() > 0) {
+                t.insertCase(s);
+            }
+        }
+        Metrics.loaded(t, time);
+        return t;
+    }
+
+    /** Build a Trie from a list of words on several threads.
+     *
+     * The words are split by their first letter, and each letter's
+     * subtrie is built on its own (as a task on a pool of threads, so the
+     * big letters don't hold up the rest) under a root node made up
+     * front.  Nothing is shared between the tasks:  they only update the
+     * summaries up to the top of their subtrie, and the root's summary is
+     * recomputed from its children at the end.  Ids are then handed out
+     * in one quick pass over the list, in the order a serial build would
+     * have given them (the first time each word appears), so the result
+     * is the same as calling insertCase() on each word in turn:  the same
+     * nodes, ids, cached strings, summaries and size.
+     * @param words The words
+     * @param a The alphabet, e.g. Alphabet.ENGLISH
+     * @param threads The number of threads to use
+     * @return The Trie
+     */
+    public static Trie build(final List<String> words, Alphabet a,
+                             int threads)
+    {
+        final Trie t = new Trie(a);
+        final int n = words.size();
+        final String[] encoded = new String[n];
+        //per word:  its node, and whether it was new (i.e. gets an id)
+        final Node[] nodes = new Node[n];
+        final boolean[] fresh = new boolean[n];
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            //encode the words, in one slice per thread
+            List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+            final int slice = (n + threads - 1) / threads;
+            for (int i = 0; i < n; i += slice) {
+                final int from = i;
+                tasks.add(new Callable<Object>() {
+                    public Object call() {
+                        int to = Math.min(from + slice, n);
+                        for (int k = from; k < to; ++k) {
+                            encoded[k] = t.alphabet.encode(words.get(k));
+                        }
+                        return null;
+                    }
+                });
+            }
+            runAll(pool, tasks);
+
+            //split them by first letter, keeping their order
+            int width = t.root.children.length;
+            int[] start = new int[width + 1];
+            for (String e : encoded) {
+                if (e != null && e.length() > 0) {
+                    ++start[t.alphabet.index(e.charAt(0)) + 1];
+                }
+            }
+            for (int c = 0; c < width; ++c) {
+                start[c + 1] += start[c];
+            }
+            final int[] order = new int[start[width]];
+            int[] fill = Arrays.copyOf(start, width);
+            for (int k = 0; k < n; ++k) {
+                String e = encoded[k];
+                if (e != null && e.length() > 0) {
+                    int c = t.alphabet.index(e.charAt(0));
+                    order[fill[c]++] = k;
+                    t.get(t.root, e.charAt(0));
+                }
+            }
+
+            //build each letter's subtrie, biggest first
+            Integer[] letters = new Integer[width];
+            for (int c = 0; c < width; ++c) {
+                letters[c] = c;
+            }
+            final int[] st = start;
+            Arrays.sort(letters, new Comparator<Integer>() {
+                public int compare(Integer x, Integer y) {
+                    return (st[y + 1] - st[y]) - (st[x + 1] - st[x]);
+                }
+            });
+            tasks.clear();
+            for (final int c : letters) {
+                if (st[c] == st[c + 1]) {
+                    continue;
+                }
+                tasks.add(new Callable<Object>() {
+                    public Object call() {
+                        Node top = t.root.children[c];
+                        for (int j = st[c]; j < st[c + 1]; ++j) {
+                            int k = order[j];
+                            StringCharacterIterator sci =
+                                    new StringCharacterIterator(encoded[k]);
+                            sci.first();
+                            Node w = t.insert(top, sci);
+                            fresh[k] = w.markWord(t.root);
+                            w.setCacheString(words.get(k));
+                            nodes[k] = w;
+                        }
+                        return null;
+                    }
+                });
+            }
+            runAll(pool, tasks);
+        }
+        finally {
+            pool.shutdown();
+        }
+
+        //stitch:  the root's summary, the ids and the size
+        t.root.recompute();
+        for (int k = 0; k < n; ++k) {
+            if (nodes[k] == null) {
+                continue;
+            }
+            if (fresh[k]) {
+                nodes[k].id = t.next_id++;
+                t.by_id.add(nodes[k]);
+            }
+            ++t.m_size;
+        }
+        return t;
+    }
+
+    /** Run tasks on a pool and wait for all of them.
+     * @param pool The pool
+     * @param tasks The tasks
+     */
+    private static void runAll(ExecutorService pool,
+                               List<Callable<Object>> tasks)
+    {
+        try {
+            for (Future<Object> f : pool.invokeAll(tasks)) {
+                f.get();
+            }
+        }
+        catch (InterruptedException | ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Build a bucket of a lazily loaded Trie, if it isn't built yet.
+     * @param c1 The first letter of the bucket's prefix (uppercase)
+     * @param c2 The second letter, or 0 for the one letter word c1
+     */
+    private void build(char c1, char c2) {
+        Lazy l = lazy;
+        if (l != null) {
+            build(l, l.bucket(alphabet.index(c1),
+                              (c2 == 0) ? -1 : alphabet.index(c2)));
+        }
+    }
+
+    /** Build a bucket of a lazily loaded Trie, if it isn't built yet.
+     * @param l The index
+     * @param b The bucket
+     */
+    private void build(Lazy l, int b) {
+        if (l.isBuilt(b)) {
+            Metrics.LAZY_HITS.inc();
+            return;
+        }
+        synchronized (l) {
+            if (l.isBuilt(b)) {
+                Metrics.LAZY_HITS.inc();
+                return;
+            }
+            Metrics.LAZY_MISSES.inc();
+            synchronized (by_id) {
+                for (int k = l.start[b]; k < l.start[b + 1]; ++k) {
+                    int from = l.words[k];
+                    int to = from;
+                    while (to < l.text.length && !isSpace(l.text[to])) {
+                        ++to;
+                    }
+                    String s = new String(l.text, from, to - from,
+                                          StandardCharsets.ISO_8859_1);
+                    Node n = place(alphabet.encode(s));
+                    if (n.markWord()) {
+                        n.id = k;
+                        by_id.set(k, n);
+                    }
+                    n.setCacheString(s);
+                }
+            }
+            l.built.set(b >>> 6, l.built.get(b >>> 6) | (1L << b));
+            if (--l.left == 0) {
+                finish(l);
+            }
+        }
+    }
+
+    /** Drop the index of a lazily loaded Trie once every bucket has been
+     * built.  The root's summary is recomputed first:  building keeps the
+     * summaries up to date only up to the root of the Trie that was
+     * loaded, not the roots of versions of it.
+     * @param l The index
+     */
+    private void finish(Lazy l) {
+        synchronized (l) {
+            if (lazy != null) {
+                root.recompute();
+                lazy = null;
+            }
+        }
+    }
+
+    /** Build every bucket under a node of depth 0 or 1.
+     * @param n The node
+     */
+    private void buildBelow(Node n) {
+        Lazy l = lazy;
+        if (l == null) {
+            return;
+        }
+        int from = 0;
+        int to = l.start.length - 1;
+        if (n.depth == 1) {
+            from = l.bucket(n.index_here, 0);
+            to = from + l.width + 1;
+        }
+        for (int b = from; b < to; ++b) {
+            build(l, b);
+        }
+        if (n.depth == 0) {
+            finish(l);
+        }
+    }
+
+    /** Build the buckets that a string (or, if below is set, everything
+     * starting with it) can be in.
+     * @param s The string (case insensitive)
+     * @param below Whether to build the strings that start with s too
+     */
+    private void buildFor(String s, boolean below) {
+        if (lazy == null) {
+            return;
+        }
+        char c1 = (s.length() > 0) ? Character.toUpperCase(s.charAt(0)) : 0;
+        if (s.length() >= 2) {
+            build(c1, Character.toUpperCase(s.charAt(1)));
+        }
+        else if (s.length() == 1 && !below) {
+            build(c1, (char) 0);
+        }
+        else if (s.length() == 1) {
+            Node n = root.children[alphabet.index(c1)];
+            if (n != null) {
+                buildBelow(n);
+            }
+        }
+        else {
+            buildBelow(root);
+        }
+    }
+
+    /** Get the letters this Trie holds.
+     * @return The alphabet
+     */
+    public Alphabet alphabet() {
+        return alphabet;
+    }
+
+    /** Get the number of ids handed out.  Ids are dense and handed out
+     * in insertion order, so every string in the Trie has an id in
+     * [0, idCount()).  (A lazily loaded Trie hands out ids up front, in
+     * the order of its buckets rather than the order of the file, so the
+     * same word list loaded lazily and eagerly numbers its words
+     * differently:  don't mix ids between the two, e.g. in SeedSweep's
+     * Stats or between a SweepWorker and its coordinator.  A word repeated
+     * in the file also leaves an unused id, as does a version made by
+     * withWord() and then thrown away.)
+     * @return The number of ids
+     */
+    public int idCount() {
+        return next_id;
+    }
+
+    /** Get the string with a given id.
+     * See enqueue(Queue) for caveats about case.
+     * @param id The id, see SearchIterator.wordId()
+     * @return The string, or null if the id isn't in use (e.g. its string
+     *         was deleted, or it was a repeat in a lazily loaded file)
+     * @throws IndexOutOfBoundsException If id isn't in [0, idCount())
+     */
+    public String word(int id) {
+        if (id < 0 || id >= next_id) {
+            throw new IndexOutOfBoundsException("id " + id + " of "
+                                                + next_id);
+        }
+        Lazy l = lazy;
+        if (l != null && id < l.words.length) {
+            //the last bucket starting at or before id is the one it is in
+            int lo = 0;
+            int hi = l.start.length - 2;
+            while (lo < hi) {
+                int mid = (lo + hi + 1) >>> 1;
+                if (l.start[mid] <= id) {
+                    lo = mid;
+                }
+                else {
+                    hi = mid - 1;
+                }
+            }
+            build(l, lo);
+        }
+        Node n = by_id.get(id);
+        if (n != null && shared) {
+            //n is in the version that handed out the id:  find the same
+            //string here, and check that it still has this id
+            n = locate(n);
+            if (n != null && (!n.value_here || n.id != id)) {
+                n = null;
+            }
+        }
+        return (n == null) ? null : n.toString();
+    }
+
+    /** Find the node in this Trie for the string at a node of another
+     * version of it.
+     * @param n The node
+     * @return The node here, or null if there is none
+     */
+    private Node locate(Node n) {
+        if (n.depth == 0) {
+            return root;
+        }
+        Node p = locate(n.parent);
+        return (p == null) ? null : p.children[n.index_here];
     }
 
     /** Gets a SearchIterator for this Trie.
      * @return The SearchIterator.
      */
     public SearchIterator beginSearch() {
-        return new SearchIterator(root);
+        SearchIterator it = new SearchIterator(root, alphabet);
+        if (shared) {
+            it.path = new Node[32];
+        }
+        if (lazy != null) {
+            it.owner = this;
+        }
+        return it;
     }
 
     /** Recursive helper for insert(s).
@@ -246,55 +1193,70 @@ public class Trie {
      * @param sci An iterator to the next char in the string
      * @return The node that was created/updated by this insertion
      */
-    private static Node insert(Node n, StringCharacterIterator sci) {
+    private Node insert(Node n, StringCharacterIterator sci) {
         char c = sci.next();
 
         if (c == sci.DONE) {
-            n.value_here = true;
             return n;
         }
-        return insert(n.get(c), sci);
+        return insert(get(n, c), sci);
+    }
+
+    /** Get the child of a node, creating it if necessary.
+     * @param n The node
+     * @param c The letter (encoded)
+     * @return The child
+     */
+    private Node get(Node n, char c) {
+        return n.get(c, alphabet.index(c));
     }
 
     /** Insert a string into the trie.
-     * @param s The string to insert
+     * @param s The string to insert (encoded)
      */
     public void insert(String s) {
+        buildFor(s, false);
         StringCharacterIterator sci = new StringCharacterIterator(s);
         //insert the string, and while we're at it, since we have the
         //string, we might as well update the cache.
-        insert(root.get(sci.first()), sci).setCacheString(s);
+        addWord(insert(get(root, sci.first()), sci)).setCacheString(s);
         ++m_size;
     }
 
-    /** Recursive helper for insertCase(s).
-     * This is basic tree traversal - nothing new here.
-     * @param n The current node visited
-     * @param sci An iterator to the next char in the string
-     * @return The node that was created/updated by this insertion
+    /** Insert a string into the trie, converting the string to uppercase
+     * (or rather to this Trie's alphabet, see Alphabet.encode()).  A
+     * string that can't be spelled in the alphabet is ignored.
+     * @param s The string to insert
      */
-    private static Node insertCase(Node n, StringCharacterIterator sci) {
-        char c = sci.next();
-
-        if (c == sci.DONE) {
-            n.value_here = true;
-            return n;
-        }
-        return insertCase(n.get(Character.toUpperCase(c)), sci);
+    public void insertCase(String s) {
+        buildFor(s, false);
+        addCase(s);
     }
 
-    /** Insert a string into the trie, converting the string to uppercase.
+    /** The body of insertCase(), without building anything first.
      * @param s The string to insert
      */
-    public void insertCase(String s) {
-        StringCharacterIterator sci = new StringCharacterIterator(s);
+    private void addCase(String s) {
+        String e = alphabet.encode(s);
+        if (e == null) {
+            return;
+        }
         //insert the string, and while we're at it, since we have the
         //string, we might as well update the cache.
-        insertCase(root.get(Character.toUpperCase(sci.first())), sci)
-                .setCacheString(s);
+        addWord(place(e)).setCacheString(s);
         ++m_size;
     }
 
+    /** Make the nodes for a string, without making it a string in the
+     * Trie.
+     * @param e The string (encoded, not empty)
+     * @return Its node
+     */
+    private Node place(String e) {
+        StringCharacterIterator sci = new StringCharacterIterator(e);
+        return insert(get(root, sci.first()), sci);
+    }
+
     /** Insert a string into the trie, converting the string to uppercase.
      * This method does not cache the string internally.  This is useful
      * if you need SearchIterator.toString() or enqueue() to be strings
@@ -302,8 +1264,13 @@ public class Trie {
      * @param s The string to insert
      */
     public void insertCase_nocache(String s) {
-        StringCharacterIterator sci = new StringCharacterIterator(s);
-        insertCase(root.get(Character.toUpperCase(sci.first())), sci);
+        buildFor(s, false);
+        String e = alphabet.encode(s);
+        if (e == null) {
+            return;
+        }
+        StringCharacterIterator sci = new StringCharacterIterator(e);
+        addWord(insert(get(root, sci.first()), sci));
         ++m_size;
     }
 
@@ -331,7 +1298,7 @@ public class Trie {
      *                  returns Lroot['b']['a'] (Lnode1)
      *              returns Lroot['b']['a']['r'] (Lnode2)
      *          returns Lroot['b']['a']['r'] (Lnode2)
-     *      Lroot['b']['a']['r'].value_here = true;
+     *      Lroot['b']['a']['r'].markWord();
      * done
      *
      * Basically, we walk up the first trie, pushing characters onto the
@@ -343,7 +1310,7 @@ public class Trie {
      *
      * And everyone thought that reversing strings was a silly problem...
      */
-    private static Node insertForeignIt(SearchIterator it, Node r, char c) {
+    private Node insertForeignIt(SearchIterator it, Node r, char c) {
         if (!it.reachable()) {  //fallen off the top of the tree
             return r;
         }
@@ -352,7 +1319,7 @@ public class Trie {
         it.up();
         Node n = insertForeignIt(it, r, tmp);
 
-        return (c == 0) ? n : n.get(c);
+        return (c == 0) ? n : get(n, c);
     }
 
     /** Insert the string indicated by a SearchIterator into another Trie
@@ -360,17 +1327,149 @@ public class Trie {
      * @param it An iterator into another Trie.
      */
     public void insertForeignIt(SearchIterator it) {
-        Node n = insertForeignIt(new SearchIterator(it), root, (char) 0);
-        n.value_here = true;
+        buildBelow(root);
+        Node n = addWord(insertForeignIt(new SearchIterator(it), root,
+                                         (char) 0));
         n.str = it.getCacheString(); //may be null
         ++m_size;
     }
 
+    /** Remove a string from the trie (case insensitive).
+     * Nodes that no longer lead to any string are removed too, and the
+     * summaries above the string are recomputed.  The string's id is not
+     * reused.
+     *
+     * Don't call this on a Trie that shares nodes with another one (see
+     * withWord()); use withoutWord() instead.
+     * @param s The string to remove
+     * @return True if it was in the Trie
+     */
+    public boolean delete(String s) {
+        //build all of the first letter's subtrie, not just s's bucket:
+        //the walk up recomputes the first letter's node, which would
+        //otherwise count only the built buckets (and drop the letter if
+        //s was the only word in them)
+        if (s.length() > 0) {
+            buildFor(s.substring(0, 1), true);
+        }
+        Node n = findNode(s);
+        if (n == null || !n.value_here || n == root) {
+            return false;
+        }
+        n.value_here = false;
+        if (!shared) {
+            by_id.set(n.id, null); //else other versions may still have it
+        }
+        n.id = -1;
+        n.str = null;
+        --m_size;
+        while (n != root) {
+            Node p = (n.depth == 1) ? root : n.parent;
+            n.recompute();
+            if (n.word_count == 0) {
+                int i = n.index_here;
+                p.children[i] = null;
+                p.child_mask &= ~(1 << i);
+            }
+            n = p;
+        }
+        root.recompute();
+        return true;
+    }
+
+    /** Make a version of this Trie that can be changed without changing
+     * this one, copying only the root and the nodes on the path to a
+     * string (as far as they exist).  Everything else is shared, which is
+     * safe because neither version changes it:  the copy's changes all go
+     * through withWord() and withoutWord(), which copy again.  by_id is
+     * shared too, so a copy costs the string's length in nodes, not the
+     * size of the Trie.
+     *
+     * In a lazily loaded Trie, the string's first letter is built before
+     * it is copied, since buckets built later under one version's copy of
+     * it would be missing from the other's.
+     * @param e The string (encoded, not empty)
+     * @return The copy
+     */
+    private Trie copyFor(String e) {
+        Node top = root.children[alphabet.index(e.charAt(0))];
+        if (top != null) {
+            buildBelow(top);
+        }
+        Trie t = new Trie(alphabet);
+        t.by_id = by_id;
+        t.shared = true;
+        t.next_id = next_id;
+        t.m_size = m_size;
+        t.lazy = lazy;
+        Node p = t.root;
+        System.arraycopy(root.children, 0, p.children, 0,
+                         p.children.length);
+        p.child_mask = root.child_mask;
+        p.recompute();
+        for (int k = 0; k < e.length(); ++k) {
+            int i = alphabet.index(e.charAt(k));
+            if (p.children[i] == null) {
+                break;
+            }
+            p.children[i] = p.children[i].copy(p);
+            p = p.children[i];
+        }
+        return t;
+    }
+
+    /** Get a version of this Trie with a string added, as insertCase()
+     * would add it.  This Trie is unchanged, so searches running on it
+     * aren't disturbed; the new version shares everything except the
+     * nodes on the string's path (see copyFor()), so it costs about as
+     * much as inserting the string.  The new string gets a new id, and
+     * every other string keeps its id.  Ids come from a table shared by
+     * all the versions, so two versions made from the same one (e.g. by
+     * racing updates) never give out the same id; the loser's id is
+     * simply never used.
+     *
+     * A Trie made this way shares nodes with the one it came from, so
+     * only change it with withWord() and withoutWord().
+     * @param s The string to add (not empty)
+     * @return The new version, or this if s was already in the Trie (or
+     *         can't be spelled in its alphabet)
+     */
+    public Trie withWord(String s) {
+        String e = alphabet.encode(s);
+        if (e == null || find(e) == SearchResult.FOUND) {
+            return this;
+        }
+        Trie t = copyFor(e);
+        synchronized (by_id) {
+            t.next_id = by_id.size();
+            t.addCase(s);
+        }
+        return t;
+    }
+
+    /** Get a version of this Trie with a string removed.  See withWord().
+     * The string's id isn't reused, and word() returns null for it in the
+     * new version only.
+     * @param s The string to remove (case insensitive)
+     * @return The new version, or this if s wasn't in the Trie
+     */
+    public Trie withoutWord(String s) {
+        String e = alphabet.encode(s);
+        if (e == null || e.length() == 0
+                      || find(e) != SearchResult.FOUND)
+        {
+            return this;
+        }
+        Trie t = copyFor(e);
+        t.delete(s);
+        return t;
+    }
+
     /** Recursive helper for find(s).
      * @param n The current node being visited
      * @param sci An iterator into the current position in the string
      */
-    private static SearchResult find(Node n, StringCharacterIterator sci) {
+    private SearchResult find(Node n, StringCharacterIterator sci) {
         if (n == null) {
             return SearchResult.NOPREFIX;
         }
@@ -379,7 +1478,7 @@ public class Trie {
         if (c == sci.DONE) {
             return n.value_here ? SearchResult.FOUND : SearchResult.NOTFOUND;
         }
-        return find(n.children[Node.index(c)], sci);
+        return find(n.children[alphabet.index(c)], sci);
     }
 
     /** Determine if a string is in this Trie.
@@ -392,9 +1491,24 @@ public class Trie {
      * FOUND implies that the string is in fact in the Trie.
      */
     public SearchResult find(String s) {
+        buildFor(s, false);
         StringCharacterIterator sci = new StringCharacterIterator(s);
 
-        return find(root.children[Node.index(sci.first())], sci);
+        return find(root.children[alphabet.index(sci.first())], sci);
+    }
+
+    /** Count the strings in this Trie that start with a prefix.
+     * This uses the counts kept in each node, so it only costs a walk
+     * down to the prefix.
+     * @param prefix The prefix (uppercase).  "" counts everything.
+     * @return The number of strings starting with prefix
+     */
+    public int countPrefix(String prefix) {
+        SearchIterator it = beginSearch();
+        for (int i = 0; i < prefix.length(); ++i) {
+            it.next(prefix.charAt(i));
+        }
+        return it.wordCount();
     }
 
     /** Determine if a string is in this Trie.
@@ -407,6 +1521,263 @@ public class Trie {
         return find(s) == SearchResult.FOUND;
     }
     
+    /** A compiled wildcard pattern, see match(String, Queue).
+     * The search runs the pattern as an NFA alongside a walk of the Trie:
+     * the state at a node is the set of pattern positions (as a bitmask)
+     * that the node's prefix can have matched up to.
+     */
+    private static class Pattern {
+        /** The pattern, uppercase, with runs of '*' collapsed */
+        char[] p;
+        /** minLeft[i] is the number of letters p[i..] needs at least */
+        int[] minLeft;
+        /** star[i] is true if p[i..] contains a '*' */
+        boolean[] star;
+        /** needed[i] is the mask of the letters that p[i..] spells out */
+        int[] needed;
+        /** Where the matches go */
+        Queue<String> q;
+
+        /** Add the positions reachable by skipping '*'s (which can match
+         * nothing) to a set of positions.
+         * @param set The positions
+         * @return The closed set
+         */
+        long close(long set) {
+            for (int i = 0; i < p.length; ++i) {
+                if ((set & (1L << i)) != 0 && p[i] == '*') {
+                    set |= 1L << (i + 1);
+                }
+            }
+            return set;
+        }
+
+        /** Move a set of positions past one letter.
+         * @param set The positions
+         * @param c The letter
+         * @return The new (closed) set of positions
+         */
+        long step(long set, char c) {
+            long next = 0;
+            for (int i = 0; i < p.length; ++i) {
+                if ((set & (1L << i)) == 0) {
+                    continue;
+                }
+                if (p[i] == '*') {
+                    next |= 1L << i;
+                }
+                else if (p[i] == '?' || p[i] == c) {
+                    next |= 1L << (i + 1);
+                }
+            }
+            return close(next);
+        }
+
+        /** Check whether the rest of the pattern from some position in
+         * set can be matched by a string in n's subtree.
+         * @param set The positions
+         * @param n The node
+         * @return False if no string below n can match
+         */
+        boolean feasible(long set, Node n) {
+            for (int i = 0; i <= p.length; ++i) {
+                if ((set & (1L << i)) == 0) {
+                    continue;
+                }
+                int need = minLeft[i];
+                if (n.max_remaining >= need 
+                        && (star[i] || n.min_remaining <= need)
+                        && (needed[i] & ~n.subtree_mask) == 0)
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /** Recursive helper for match().
+     * @param n The current node
+     * @param set The pattern positions n's prefix can have matched up to
+     * @param pat The pattern
+     */
+    private static void match(Node n, long set, Pattern pat) {
+        if (n.value_here && (set & (1L << pat.p.length)) != 0) {
+            pat.q.offer(n.toString());
+        }
+        for (int i = 0; i < n.children.length; ++i) {
+            Node child = n.children[i];
+            if (child == null) {
+                continue;
+            }
+            long next = pat.step(set, child.char_here);
+            if (next != 0 && pat.feasible(next, child)) {
+                match(child, next, pat);
+            }
+        }
+    }
+
+    /** Find the strings matching a wildcard pattern.
+     * A '?' matches any one letter and a '*' matches any run of letters
+     * (including none), so "C?T" finds CAT and COT, "C?T*" also finds
+     * CATS and COTTAGE, and "????" finds every 4 letter string.
+     *
+     * Only the parts of the Trie that can still match are visited:  the
+     * subtree summaries (see SearchIterator.wordCount() and friends) let
+     * the search give up on a prefix as soon as the rest of the pattern
+     * is too long or too short for every string below it, or spells out
+     * a letter that none of them has.  Each node is visited at most once.
+     * @param pattern The pattern (case insensitive), at most 63 characters
+     *                once runs of '*' are collapsed
+     * @param q The queue to add the matches to, in sorted order.  See
+     *          enqueue(Queue) for caveats about case.
+     */
+    public void match(String pattern, Queue<String> q) {
+        String e = alphabet.encode(pattern, "*?");
+        if (e == null) {
+            throw new IllegalArgumentException("letter not in alphabet");
+        }
+        StringBuilder sb = new StringBuilder(e.length());
+        for (int i = 0; i < e.length(); ++i) {
+            char c = e.charAt(i);
+            if (c != '*' || sb.length() == 0 
+                         || sb.charAt(sb.length() - 1) != '*')
+            {
+                sb.append(c);
+            }
+        }
+        if (sb.length() > 63) {
+            throw new IllegalArgumentException("pattern too long");
+        }
+        char[] p = sb.toString().toCharArray();
+        int len = p.length;
+        Pattern pat = new Pattern();
+
+        pat.p = p;
+        pat.minLeft = new int[len + 1];
+        pat.star = new boolean[len + 1];
+        pat.needed = new int[len + 1];
+        for (int i = len - 1; i >= 0; --i) {
+            pat.minLeft[i] = pat.minLeft[i + 1] + ((p[i] == '*') ? 0 : 1);
+            pat.star[i] = pat.star[i + 1] || p[i] == '*';
+            pat.needed[i] = pat.needed[i + 1];
+            if (p[i] != '*' && p[i] != '?') {
+                pat.needed[i] |= 1 << alphabet.index(p[i]);
+            }
+        }
+        pat.q = q;
+        buildBelow(root);
+        long start = pat.close(1L);
+        if (pat.feasible(start, root)) {
+            match(root, start, pat);
+        }
+    }
+
+    /** Find the strings matching a wildcard pattern.
+     * See match(String, Queue) for the pattern syntax.
+     * @param pattern The pattern (case insensitive)
+     * @return A queue of the matches, in sorted order
+     */
+    public Queue<String> match(String pattern) {
+        Queue<String> q = new ArrayDeque<String>();
+        match(pattern, q);
+        return q;
+    }
+
+    /** Recursive helper for anagrams().
+     * @param n The current node
+     * @param count count[i] is how many of letter i are left to use
+     * @param avail Mask of the letters with count[i] > 0
+     * @param blanks How many '?' tiles are left
+     * @param left How many tiles are left in total
+     * @param all Whether every tile has to be used
+     * @param q Where the matches go
+     */
+    private static void anagrams(Node n, int[] count, int avail, 
+                                 int blanks, int left, boolean all,
+                                 Queue<String> q)
+    {
+        if (n.word_count == 0 || (all && (n.max_remaining < left
+                                          || n.min_remaining > left))) {
+            return;
+        }
+        //without blanks, every letter the subtree needs must be here
+        if (blanks == 0 && (n.needed_mask & ~avail) != 0) {
+            return;
+        }
+        if (n.value_here && (!all || left == 0)) {
+            q.offer(n.toString());
+        }
+        if (left == 0) {
+            return;
+        }
+        for (int i = 0; i < n.children.length; ++i) {
+            Node child = n.children[i];
+            if (child == null) {
+                continue;
+            }
+            //a real tile always beats a blank, so each child is visited
+            //at most once and nothing is found twice
+            if (count[i] > 0) {
+                --count[i];
+                anagrams(child, count, 
+                         (count[i] == 0) ? avail & ~(1 << i) : avail,
+                         blanks, left - 1, all, q);
+                ++count[i];
+            }
+            else if (blanks > 0) {
+                anagrams(child, count, avail, blanks - 1, left - 1, all, q);
+            }
+        }
+    }
+
+    /** Find the strings that can be spelled with a set of letter tiles.
+     * Each tile is used at most once, and a '?' is a blank tile that can
+     * stand for any letter.  Only prefixes that can be spelled with the
+     * tiles are visited, and a prefix is dropped as soon as a letter that
+     * every string below it needs has run out, or (if all is true) the
+     * tiles left can't be used up by any string below it.
+     * @param letters The tiles, e.g. "TEARS" or "QUIZ??" (case insensitive)
+     * @param all True to only find strings that use every tile (anagrams
+     *            proper), false to find any string the tiles can spell
+     * @param q The queue to add the matches to, in sorted order.  See
+     *          enqueue(Queue) for caveats about case.
+     */
+    public void anagrams(String letters, boolean all, Queue<String> q) {
+        int[] count = new int[root.children.length];
+        int avail = 0;
+        int blanks = 0;
+        String e = alphabet.encode(letters, "?");
+        if (e == null) {
+            throw new IllegalArgumentException("letter not in alphabet");
+        }
+
+        for (int i = 0; i < e.length(); ++i) {
+            char c = e.charAt(i);
+            if (c == '?') {
+                ++blanks;
+            }
+            else {
+                ++count[alphabet.index(c)];
+                avail |= 1 << alphabet.index(c);
+            }
+        }
+        buildBelow(root);
+        anagrams(root, count, avail, blanks, e.length(), all, q);
+    }
+
+    /** Find the strings that can be spelled with a set of letter tiles.
+     * See anagrams(String, boolean, Queue).
+     * @param letters The tiles (case insensitive, '?' is a blank)
+     * @param all True to only find strings that use every tile
+     * @return A queue of the matches, in sorted order
+     */
+    public Queue<String> anagrams(String letters, boolean all) {
+        Queue<String> q = new ArrayDeque<String>();
+        anagrams(letters, all, q);
+        return q;
+    }
+
     /** Helper method for enqueue()
      * @param n The current node being visited
      * @param q The queue to add items to
@@ -417,7 +1788,7 @@ public class Trie {
         if (n.value_here) {
             q.offer(n.toString());
         }
-        for (int i = 0; i < 26; ++i) {
+        for (int i = 0; i < n.children.length; ++i) {
             enqueue(n.children[i], q);
         }
     }
@@ -427,7 +1798,7 @@ public class Trie {
      * @return A queue containing all of the elements of this Trie
      */
     public Queue<String> enqueue() {
-        Queue<String> q = new ArrayDeque<String>(m_size);
+        Queue<String> q = new ArrayDeque<String>(size());
         enqueue(q);
         return q;
     }
@@ -445,26 +1816,27 @@ public class Trie {
      * @param q The queue to enqueue all of the elements into
      */
     public void enqueue(Queue<String> q) {
-        for (int i = 0; i < 26; ++i) {
+        buildBelow(root);
+        for (int i = 0; i < root.children.length; ++i) {
             enqueue(root.children[i], q);
         }
     }
 
     /** Helper method for enqueue_nocache()
      * @param n The current node being visited
-     * @param prefix The prefix associated with the current node
+     * @param buf The characters of the current prefix, buf[0, n.depth)
      * @param q The queue to add items to
      */
-    private static void enqueue_nocache(Node n, String prefix, 
-                                        Queue<String> q) 
+    private static void enqueue_nocache(Node n, char[] buf, Queue<String> q)
     {
         if (n == null)
             return;
+        buf[n.depth - 1] = n.char_here;
         if (n.value_here) {
-            q.offer(prefix);
+            q.offer(new String(buf, 0, n.depth));
         }
-        for (int i = 0; i < 26; ++i) {
-            enqueue_nocache(n.children[i], prefix + ((char) ('A' + i)), q);
+        for (int i = 0; i < n.children.length; ++i) {
+            enqueue_nocache(n.children[i], buf, q);
         }
     }
 
@@ -472,7 +1844,7 @@ public class Trie {
      * @return A queue containing all of the elements of this Trie
      */
     public Queue<String> enqueue_nocache() {
-        Queue<String> q = new ArrayDeque<String>(m_size);
+        Queue<String> q = new ArrayDeque<String>(size());
         enqueue_nocache(q);
         return q;
     }
@@ -482,10 +1854,277 @@ public class Trie {
      * @param q The queue to enqueue all of the elements into
      */
     public void enqueue_nocache(Queue<String> q) {
-        for (int i = 0; i < 26; ++i) {
-            enqueue_nocache(root.children[i], 
-                            Character.toString((char)('A' + i)), q);
+        buildBelow(root);
+        //strings are only built for the elements, not for every prefix
+        char[] buf = new char[root.max_remaining];
+        for (int i = 0; i < root.children.length; ++i) {
+            enqueue_nocache(root.children[i], buf, q);
+        }
+    }
+
+    /** A lazy, splittable walk over (part of) a Trie.
+     *
+     * This covers the subtrees of base.children[lo, hi), plus base itself
+     * if include_base is set.  The walk is depth first with an explicit
+     * stack, so it is in the same order as enqueue(), and the memory it
+     * uses depends only on the length of the longest string, not on how
+     * many strings there are.  Strings are the cached ones where there is
+     * a cache (see enqueue(Queue)); otherwise they are built from the
+     * walk's own buffer and not cached, so walking a Trie doesn't grow it.
+     *
+     * Before the walk goes below base, trySplit() can hand off part of the
+     * range.  A range with a single child is split by moving base down to
+     * that child, so a Trie with one huge subtree still splits well.  The
+     * node counts make the size exact, so splits are balanced by the
+     * number of strings rather than the number of children.
+     */
+    private static class Walk implements Spliterator<String> {
+        /** The node whose children are walked */
+        private Node base;
+        /** The first child index of base to walk */
+        private int lo;
+        /** One past the last child index of base to walk */
+        private int hi;
+        /** Whether base itself is still to be returned */
+        private boolean include_base;
+        /** The nodes from base down to the current node */
+        private Node[] stack;
+        /** next[k] is the next child index to try under stack[k] */
+        private int[] next;
+        /** The top of the stack (0 is base) */
+        private int sp;
+        /** The current prefix; buf[0, n.depth) for the current node n */
+        private char[] buf;
+        /** The number of strings left */
+        private long remaining;
+
+        /** Walk the subtree under a node.
+         * @param n The node (null for an empty walk)
+         */
+        public Walk(Node n) {
+            if (n == null) {
+                remaining = 0;
+                sp = -1;
+                return;
+            }
+            init(n, 0, n.children.length, n.value_here);
+            buf = new char[n.depth + n.max_remaining];
+            for (Node p = n; p != null && p.char_here != 0; p = p.parent) {
+                buf[p.depth - 1] = p.char_here;
+            }
+        }
+
+        /** Take part of another Walk's range (for trySplit).
+         * @param w The Walk being split
+         * @param from The first child index to take
+         * @param to One past the last child index to take
+         * @param incl Whether to take the base too
+         */
+        private Walk(Walk w, int from, int to, boolean incl) {
+            init(w.base, from, to, incl);
+            buf = w.buf.clone();
+        }
+
+        /** Set the range and reset the stack.
+         * @param n The base
+         * @param from The first child index
+         * @param to One past the last child index
+         * @param incl Whether to include the base
+         */
+        private void init(Node n, int from, int to, boolean incl) {
+            base = n;
+            lo = from;
+            hi = to;
+            include_base = incl;
+            if (stack == null) {
+                int len = n.max_remaining + 1;
+                stack = new Node[len];
+                next = new int[len];
+            }
+            stack[0] = n;
+            next[0] = from;
+            sp = 0;
+            remaining = (incl ? 1 : 0) + count(n, from, to);
+        }
+
+        /** Count the strings under a range of children.
+         * @param n The parent
+         * @param from The first child index
+         * @param to One past the last child index
+         * @return The number of strings
+         */
+        private static long count(Node n, int from, int to) {
+            long c = 0;
+            for (int i = from; i < to; ++i) {
+                if (n.children[i] != null) {
+                    c += n.children[i].word_count;
+                }
+            }
+            return c;
+        }
+
+        /** Get the string for a node.
+         * @param n The node
+         * @return The cached string, or a new one from buf
+         */
+        private String str(Node n) {
+            --remaining;
+            return (n.str != null) ? n.str : new String(buf, 0, n.depth);
+        }
+
+        public boolean tryAdvance(Consumer<? super String> action) {
+            if (include_base) {
+                include_base = false;
+                action.accept(str(base));
+                return true;
+            }
+            while (sp >= 0) {
+                Node n = stack[sp];
+                int lim = (sp == 0) ? hi : n.children.length;
+                int i = next[sp];
+
+                while (i < lim && n.children[i] == null) {
+                    ++i;
+                }
+                if (i >= lim) {
+                    --sp;
+                    continue;
+                }
+                next[sp] = i + 1;
+                Node c = n.children[i];
+                ++sp;
+                stack[sp] = c;
+                next[sp] = 0;
+                buf[c.depth - 1] = c.char_here;
+                if (c.value_here) {
+                    action.accept(str(c));
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public Spliterator<String> trySplit() {
+            //only split while we haven't gone below base
+            while (sp == 0) {
+                int from = next[0];
+                int nonnull = 0;
+                int only = -1;
+                for (int i = from; i < hi; ++i) {
+                    if (base.children[i] != null) {
+                        ++nonnull;
+                        only = i;
+                    }
+                }
+                if (nonnull >= 2) {
+                    //split so each half has about half of the strings
+                    long half = count(base, from, hi) / 2;
+                    long acc = 0;
+                    int mid = from;
+                    while (mid < hi - 1 && acc < half) {
+                        if (base.children[mid] != null) {
+                            acc += base.children[mid].word_count;
+                        }
+                        ++mid;
+                    }
+                    Walk w = new Walk(this, from, mid, include_base);
+                    init(base, mid, hi, false);
+                    return w;
+                }
+                if (nonnull == 0) {
+                    return null;
+                }
+                if (include_base) {
+                    //hand off base on its own, keep the one child
+                    Walk w = new Walk(this, from, from, true);
+                    init(base, from, hi, false);
+                    return w;
+                }
+                //one child: move down to it and try again
+                Node c = base.children[only];
+                buf[c.depth - 1] = c.char_here;
+                init(c, 0, c.children.length, c.value_here);
+            }
+            return null;
+        }
+
+        public long estimateSize() {
+            return remaining;
+        }
+
+        public int characteristics() {
+            return ORDERED | DISTINCT | NONNULL | SIZED | SUBSIZED;
+        }
+    }
+
+    /** Find the node for a prefix.
+     * @param prefix The prefix (case insensitive)
+     * @return The node, or null if no string starts with prefix
+     */
+    private Node findNode(String prefix) {
+        buildFor(prefix, true);
+        String e = alphabet.encode(prefix);
+        if (e == null) {
+            return null;
         }
+        Node n = root;
+        for (int i = 0; i < e.length() && n != null; ++i) {
+            n = n.children[alphabet.index(e.charAt(i))];
+        }
+        return n;
+    }
+
+    /** Get a lazy, splittable walk over the elements of this Trie.
+     * Elements come out in the same order as enqueue(), without building
+     * a queue of them all.  The Trie must not be modified while the walk
+     * is in use.
+     * @return The Spliterator
+     */
+    public Spliterator<String> spliterator() {
+        buildBelow(root);
+        return new Walk(root);
+    }
+
+    /** Get a lazy, splittable walk over the elements that start with a
+     * prefix.  See spliterator().
+     * @param prefix The prefix (case insensitive)
+     * @return The Spliterator
+     */
+    public Spliterator<String> spliterator(String prefix) {
+        return new Walk(findNode(prefix));
+    }
+
+    /** Get a lazy iterator over the elements of this Trie, in the same
+     * order as enqueue().
+     * @return The iterator
+     */
+    public Iterator<String> iterator() {
+        return Spliterators.iterator(spliterator());
+    }
+
+    /** Get a lazy iterator over the elements that start with a prefix.
+     * @param prefix The prefix (case insensitive)
+     * @return The iterator
+     */
+    public Iterator<String> iterator(String prefix) {
+        return Spliterators.iterator(spliterator(prefix));
+    }
+
+    /** Stream the elements of this Trie.
+     * @param parallel Whether the stream should be parallel
+     * @return The stream
+     */
+    public Stream<String> stream(boolean parallel) {
+        return StreamSupport.stream(spliterator(), parallel);
+    }
+
+    /** Stream the elements that start with a prefix.
+     * @param prefix The prefix (case insensitive)
+     * @param parallel Whether the stream should be parallel
+     * @return The stream
+     */
+    public Stream<String> stream(String prefix, boolean parallel) {
+        return StreamSupport.stream(spliterator(prefix), parallel);
     }
 
     /** Get the number of elements in this Trie.
@@ -494,4 +2133,116 @@ public class Trie {
     public int size() {
         return m_size;
     }
+
+    /** Measure the heap this Trie uses (see Footprint):  the nodes, their
+     * child arrays, the cached strings, the id table and, for a lazily
+     * loaded Trie, the word file and index it is still holding.  Only the
+     * parts built so far are counted.  A version made by withWord() is
+     * counted in full, including the nodes it shares.
+     * @return The footprint
+     */
+    public Footprint footprint() {
+        Lazy l = lazy;
+        Footprint f = new Footprint((l == null) ? "Trie" : "Trie (lazy, "
+                + (l.start.length - 1 - l.left) + " of "
+                + (l.start.length - 1) + " buckets built)");
+        ArrayDeque<Node> stack = new ArrayDeque<Node>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Node n = stack.pop();
+            ++f.nodes;
+            f.add("nodes", Footprint.object(Node.FIELD_BYTES));
+            f.add("child arrays", Footprint.array(Footprint.REF,
+                                                  n.children.length));
+            f.slots += n.children.length;
+            if (n.value_here) {
+                ++f.words;
+            }
+            if (n.str != null) {
+                f.addString(n.str);
+            }
+            for (Node c : n.children) {
+                if (c != null) {
+                    ++f.filled;
+                    stack.push(c);
+                }
+            }
+        }
+        //ArrayList:  modCount, size, elementData
+        f.add("id table", Footprint.object(4 + 4 + Footprint.REF)
+                          + Footprint.array(Footprint.REF, by_id.size()));
+        if (l != null) {
+            f.add("lazy word file", Footprint.array(1, l.text.length));
+            f.add("lazy index", Footprint.array(4, l.words.length)
+                                + Footprint.array(4, l.start.length)
+                                + Footprint.array(8, l.built.length()));
+        }
+        return f;
+    }
+
+    /** Check that a lazily loaded Trie holds the same words as one
+     * loaded eagerly (Board.loadDictionary()), for a word file and for a
+     * small file of words that can't all be spelled (e.g. "'tis", which
+     * once crashed loadLazy()), and that they still do after deleting a
+     * word (which once dropped every word with the same first letter from
+     * a lazy Trie).  Prints "ok" or throws.
+     * Usage:  java Trie [wordFile]
+     */
+    public static void main(String[] args) throws IOException {
+        java.nio.file.Path bad = Files.createTempFile("trie", ".txt");
+        try {
+            Files.write(bad, "apple 'tis cat a'b Q x- be\n"
+                             .getBytes(StandardCharsets.US_ASCII));
+            checkLazy(bad.toString());
+        }
+        finally {
+            Files.delete(bad);
+        }
+        checkLazy((args.length > 0) ? args[0] : "american-english");
+        System.out.println("ok");
+    }
+
+    /** Compare a lazy and an eager load of a word file, and the two
+     * again after deleting a word from each (from a fresh lazy load, so
+     * that the word's first letter is only partly built).
+     * @param file The word file
+     * @throws IllegalStateException If they differ
+     */
+    private static void checkLazy(String file) {
+        Trie eager = Board.loadDictionary(file);
+        checkSame(file, eager, loadLazy(file));
+
+        ArrayList<String> words = new ArrayList<String>(eager.enqueue());
+        words.sort(null);
+        String w = words.get(words.size() / 2);
+        Trie lazy = loadLazy(file);
+        if (!eager.delete(w) || !lazy.delete(w)) {
+            throw new IllegalStateException("can't delete " + w);
+        }
+        String first = w.substring(0, 1).toUpperCase();
+        if (eager.countPrefix(first) != lazy.countPrefix(first)) {
+            throw new IllegalStateException("deleting " + w + " from a lazy "
+                    + "load of " + file + " left " + lazy.countPrefix(first)
+                    + " words starting with " + first + ", not "
+                    + eager.countPrefix(first));
+        }
+        checkSame(file + " less " + w, eager, lazy);
+    }
+
+    /** Check that two Tries hold the same strings.
+     * @param what What they were loaded from, for the message
+     * @param eager The eagerly loaded Trie
+     * @param lazy The lazily loaded Trie
+     * @throws IllegalStateException If they differ
+     */
+    private static void checkSame(String what, Trie eager, Trie lazy) {
+        ArrayList<String> e = new ArrayList<String>(eager.enqueue());
+        ArrayList<String> l = new ArrayList<String>(lazy.enqueue());
+        e.sort(null);
+        l.sort(null);
+        if (!e.equals(l) || eager.size() != lazy.size()) {
+            throw new IllegalStateException("lazy load of " + what +
+                                            " differs:  " + l + " vs " + e);
+        }
+    }
 }
@@ -19,6 +19,16 @@ public class TwoPlayers {
                            + " points");
         System.out.println("The computer got " + Board.countPoints(q) +
                            " points");
+        //real scoring:  words you both found are crossed off
+        Game g = new Game(b);
+        int you = g.addPlayer("You");
+        int computer = g.addPlayer("The computer");
+        g.foundAll(you, playerWords);
+        g.foundAll(computer, q);
+        Game.Result r = g.score();
+        System.out.println("Crossing off the words you both found, you got "
+                           + r.scores[you] + " and the computer got " +
+                           r.scores[computer]);
         System.out.println("The following words were found:");
         try {
             Thread.sleep(3000);
@@ -0,0 +1,205 @@
+import java.util.Arrays;
+
+/** The words found on a board, each with one path that traces it.
+ *
+ * Words are stored by their dictionary id (see Trie.wordId()), and each
+ * path is packed into a long so a whole result is two flat arrays:
+ * <ul>
+ *  <li> bits [0, 5):  the number of cells in the path </li>
+ *  <li> bits [5, 10):  the first cell (row * 5 + column) </li>
+ *  <li> bits [10, 64):  one 3 bit step per following cell, in order.
+ *       A step is the direction to the next cell, see DROW and DCOL. </li>
+ * </ul>
+ * That holds paths of up to MAX_CELLS cells.  The steps of longer paths
+ * (which would need a 20+ letter word on the board) continue in a second
+ * long, see extra().
+ */
+public class WordPaths {
+    /** The most cells that fit in one long */
+    public static final int MAX_CELLS = 19;
+    /** Row offset of each step direction */
+    private static final int[] DROW = {-1, -1, -1, 0, 0, 1, 1, 1};
+    /** Column offset of each step direction */
+    private static final int[] DCOL = {-1, 0, 1, -1, 1, -1, 0, 1};
+
+    /** The dictionary the ids refer to */
+    private Trie dictionary;
+    /** The word ids */
+    private int[] ids;
+    /** The packed paths */
+    private long[] paths;
+    /** Steps past MAX_CELLS, or null if no path is that long */
+    private long[] extra;
+    /** The number of words */
+    private int size;
+
+    /** Create an empty result.
+     * @param dict The dictionary the ids refer to
+     */
+    public WordPaths(Trie dict) {
+        dictionary = dict;
+        ids = new int[64];
+        paths = new long[64];
+        size = 0;
+    }
+
+    /** Add a word.
+     * @param id The word's id in the dictionary
+     * @param cells The path, as cell indices (row * 5 + column)
+     * @param len The number of cells in the path
+     */
+    public void add(int id, int[] cells, int len) {
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+            paths = Arrays.copyOf(paths, size * 2);
+            if (extra != null) {
+                extra = Arrays.copyOf(extra, size * 2);
+            }
+        }
+        long p = len | (cells[0] << 5);
+        long more = 0;
+        for (int k = 1; k < len; ++k) {
+            long step = step(cells[k - 1], cells[k]);
+            if (k < MAX_CELLS) {
+                p |= step << (10 + 3*(k - 1));
+            }
+            else {
+                more |= step << (3*(k - MAX_CELLS));
+            }
+        }
+        if (len > MAX_CELLS && extra == null) {
+            extra = new long[ids.length];
+        }
+        if (extra != null) {
+            extra[size] = more;     //0 for a short path, after clear()
+        }
+        ids[size] = id;
+        paths[size] = p;
+        ++size;
+    }
+
+    /** Get the direction code of a step between adjacent cells.
+     * @param from The cell the step starts on
+     * @param to The cell the step ends on
+     * @return The code, [0, 8)
+     */
+    private static int step(int from, int to) {
+        int code = (to / 5 - from / 5 + 1) * 3 + (to % 5 - from % 5 + 1);
+        //code 4 would be "stay put", which a path never does
+        return (code > 4) ? code - 1 : code;
+    }
+
+    /** Empty the result, keeping its arrays for the next board.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /** Get the number of words.
+     * @return The number of words
+     */
+    public int size() {
+        return size;
+    }
+
+    /** Measure the heap this result uses (see Footprint).  The slots are
+     * the capacity of its arrays.  There are no strings, since words are
+     * kept as ids.
+     * @return The footprint
+     */
+    public Footprint footprint() {
+        Footprint f = new Footprint("WordPaths");
+        f.words = size;
+        f.slots = ids.length;
+        f.filled = size;
+        f.add("ids", Footprint.array(4, ids.length));
+        f.add("paths", Footprint.array(8, paths.length));
+        if (extra != null) {
+            f.add("long paths", Footprint.array(8, extra.length));
+        }
+        return f;
+    }
+
+    /** Get the dictionary id of a word.
+     * @param i Which word, [0, size())
+     * @return The id
+     */
+    public int id(int i) {
+        return ids[i];
+    }
+
+    /** Get a word as a string.  This goes back to the dictionary, so
+     * callers that only need ids never build a string.
+     * @param i Which word, [0, size())
+     * @return The word
+     */
+    public String word(int i) {
+        return dictionary.word(ids[i]);
+    }
+
+    /** Get the packed path of a word.
+     * @param i Which word, [0, size())
+     * @return The path (see the class comment for the encoding)
+     */
+    public long path(int i) {
+        return paths[i];
+    }
+
+    /** Get the steps past MAX_CELLS of a word's path.
+     * @param i Which word, [0, size())
+     * @return The steps, 3 bits each, or 0 if the path isn't that long
+     */
+    public long extra(int i) {
+        return (extra == null) ? 0 : extra[i];
+    }
+
+    /** Get the number of cells in a packed path.
+     * @param path The path
+     * @return The number of cells
+     */
+    public static int length(long path) {
+        return (int) (path & 31);
+    }
+
+    /** Unpack the cells of a word's path.
+     * @param i Which word, [0, size())
+     * @param cells Where to put the cells (row * 5 + column); must hold
+     *              length(path(i)) entries
+     * @return The number of cells
+     */
+    public int cells(int i, int[] cells) {
+        long p = paths[i];
+        int len = length(p);
+        int cell = (int) ((p >>> 5) & 31);
+
+        cells[0] = cell;
+        for (int k = 1; k < len; ++k) {
+            int step;
+            if (k < MAX_CELLS) {
+                step = (int) ((p >>> (10 + 3*(k - 1))) & 7);
+            }
+            else {
+                step = (int) ((extra[i] >>> (3*(k - MAX_CELLS))) & 7);
+            }
+            cell += DROW[step] * 5 + DCOL[step];
+            cells[k] = cell;
+        }
+        return len;
+    }
+
+    /** Get a word and its path as a string, e.g. "cat (0,0) (0,1) (1,1)".
+     * @param i Which word, [0, size())
+     * @return The description
+     */
+    public String toString(int i) {
+        int[] cells = new int[25];
+        int len = cells(i, cells);
+        StringBuilder sb = new StringBuilder(word(i));
+
+        for (int k = 0; k < len; ++k) {
+            sb.append(" (").append(cells[k] / 5).append(',')
+              .append(cells[k] % 5).append(')');
+        }
+        return sb.toString();
+    }
+}
@@ -11,22 +11,26 @@ public class WorkThread extends Thread {
     /** The dictionary */
     private Trie englishWords;
     /** The shared set of words found on the board */
-    private Trie foundWords;
+    private ConcurrentTrie foundWords;
     /** The work-stealing queue */
     private ConcurrentLinkedQueue<Board.Position> work_queue;
     /** The latch to signal upon completion */
     private CountDownLatch latch;
     /** The set of used indices for a search */
     private boolean[][] used;
+    /** The deadline for the search, or null if there is none */
+    private Board.Deadline deadline;
+    /** Whether this thread ran out of time */
+    private boolean timed_out;
 
     /** Construct a WorkThread to search a subset of the boggle board
      * @param b The board to search (readonly)
      * @param e The dictionary (readonly)
-     * @param f The shared set (locks used) of words found on the board (rw)
+     * @param f The shared set of words found on the board (rw)
      * @param q The work queue
      * @param l The latch to signal upon completion of the search
      */
-    public WorkThread(char[][] b, Trie e, Trie f, 
+    public WorkThread(char[][] b, Trie e, ConcurrentTrie f, 
                       ConcurrentLinkedQueue<Board.Position> q,
                       CountDownLatch l)
     {
@@ -36,10 +40,40 @@ public class WorkThread extends Thread {
         work_queue = q;
         latch = l;
     }
+
+    /** Construct a WorkThread with a time budget
+     * @param b The board to search (readonly)
+     * @param e The dictionary (readonly)
+     * @param f The shared set of words found on the board (rw)
+     * @param q The work queue
+     * @param l The latch to signal upon completion of the search
+     * @param d The deadline (owned by this thread), or null for none
+     */
+    public WorkThread(char[][] b, Trie e, ConcurrentTrie f, 
+                      ConcurrentLinkedQueue<Board.Position> q,
+                      CountDownLatch l, Board.Deadline d)
+    {
+        this(b, e, f, q, l);
+        deadline = d;
+    }
+
+    /** Check if the search ran to completion.  Only meaningful once the
+     * latch has been released.
+     * @return False if the deadline cut the search short
+     */
+    public boolean finished() {
+        return !timed_out;
+    }
     /** Start the thread. */
     public void run() {
         used = new boolean[5][5];
-        while (true) {
+        while (!timed_out) {
+            //check before taking a cell, so one that can't be searched is
+            //left in the queue rather than dropped
+            if (deadline != null && deadline.passed()) {
+                timed_out = true;
+                break;
+            }
             Board.Position pos = work_queue.poll();
             if (pos == null) {
                 //done
@@ -69,14 +103,31 @@ public class WorkThread extends Thread {
      * @param c The current column
      */
     private void search(Trie.SearchIterator si, int r, int c) {
+        if (deadline != null && (timed_out || deadline.expired())) {
+            timed_out = true;
+            return;
+        }
         if (!si.reachable()) {
             //no reachable strings from this prefix
             return;
         }
         if (si.inSet()) {
-            synchronized(foundWords) {
-                foundWords.insertForeignIt(si);
+            //no lock needed, ConcurrentTrie is lock-free
+            foundWords.insertForeignIt(si);
+        }
+        if (deadline != null) {
+            //budgeted:  most productive prefixes first
+            int[] cells = new int[8];
+            Trie.SearchIterator[] its = new Trie.SearchIterator[8];
+            int n = Board.bestNeighbours(board, si, r, c, used, cells, its);
+            for (int k = 0; k < n && !timed_out; ++k) {
+                int y = cells[k] / 5;
+                int x = cells[k] % 5;
+                used[y][x] = true;
+                search(its[k], y, x);
+                used[y][x] = false;
             }
+            return;
         }
         //try to append all adjacent nodes to current prefix
         for (int y : new int[] {r - 1, r, r + 1}) {
@@ -0,0 +1,4 @@
+#!/bin/bash
+
+#do benchmark (one jvm, dictionary loaded once, boards solved in batches)
+java BoardBatch 0 1001 | tail -n2 | head -n1 | cut '-d ' -f1